@@ -18,11 +18,12 @@
 package de.xaniox.simpletrading;
 
 import com.google.common.collect.Lists;
-import de.xaniox.simpletrading.config.TradeConfiguration;
 import de.xaniox.simpletrading.config.WorldControlManager;
 import de.xaniox.simpletrading.i18n.I18N;
 import de.xaniox.simpletrading.i18n.I18NManager;
 import de.xaniox.simpletrading.i18n.Messages;
+import de.xaniox.simpletrading.scheduler.TickDriver;
+import de.xaniox.simpletrading.scheduler.TickStats;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.GameMode;
@@ -60,10 +61,11 @@ public class CommandTrade implements CommandExecutor {
 		Player player = (Player) sender;
 		TradeFactory factory = main.getFactory();
         WorldControlManager worldControlManager = main.getWorldControlManager();
+        PlayerSpatialIndex spatialIndex = main.getSpatialIndex();
 
 		if (args.length < 1) {
             player.sendMessage(i18n.getVarString(Messages.Command.USAGE)
-                .setVariable("usage", "/trade <player>")
+                .setVariable("usage", "/trade <player|accept [player]|decline [player]|requests|nearby|timings>")
                 .toString());
 			return true;
 		}
@@ -74,22 +76,12 @@ public class CommandTrade implements CommandExecutor {
 				return true;
 			}
 			
-			Trade trade = factory.getTrade(player);
-			if (trade == null || trade.getPartner().getPlayer() != player) {
-				player.sendMessage(i18n.getVarString(Messages.General.NO_PENDING_REQUESTS)
-                    .setVariable("player", player.getName())
-                    .toString());
+			TradeRequest request = findRequest(player, args);
+			if (request == null) {
 				return true;
 			}
 			
-			Player other = trade.getInitiator().getPlayer() == player ? trade.getPartner().getPlayer() : trade.getInitiator().getPlayer();
-			
-			int maxDistance = main.getConfiguration().getMaximumTradeDistance();
-			if ((player.getWorld() != other.getWorld() || player.getLocation().distanceSquared(other.getLocation()) > maxDistance * 2)
-                    && maxDistance != TradeConfiguration.NO_MAX_DISTANCE) {
-                player.sendMessage(i18n.getString(Messages.Command.PARTNER_TOO_FAR_AWAY));
-				return true;
-			}
+			Player other = request.getInitiator();
 
             if (!worldControlManager.isAllowed(player.getWorld())) {
                 player.sendMessage(i18n.getString(Messages.Command.CANNOT_TRADE_IN_WORLD));
@@ -100,28 +92,82 @@ public class CommandTrade implements CommandExecutor {
                 player.sendMessage(i18n.getString(Messages.Command.CANNOT_TRADE_IN_WORLD_PARTNER));
                 return true;
             }
+
+            if (!spatialIndex.isInRange(player, other)) {
+                player.sendMessage(i18n.getString(Messages.Command.PARTNER_TOO_FAR_AWAY));
+                return true;
+            }
 			
-			factory.acceptTrade(player);
+			factory.acceptTrade(request);
 		} else if (args[0].equalsIgnoreCase("decline") || args[0].equalsIgnoreCase("d")) {
             if (!player.hasPermission(Permissions.TRADE_DENY.getPermission())) {
                 player.sendMessage(i18n.getString(Messages.Command.INSUFFICIENT_PERMISSION));
                 return true;
             }
 
-			Trade trade = factory.getTrade(player);
-			if (trade == null || trade.getPartner().getPlayer() != player) {
-				player.sendMessage(i18n.getVarString(Messages.General.NO_PENDING_REQUESTS)
-                    .setVariable("player", player.getName())
-                    .toString());
+			TradeRequest request = findRequest(player, args);
+			if (request == null) {
 				return true;
 			}
 			
-			factory.declineTrade(player);
-			trade.getInitiator().getPlayer().sendMessage(i18n.getVarString(Messages.General.TRADE_REQUEST_DECLINED)
-                .setVariable("player", player.getName())
+			factory.declineTrade(request);
+		} else if (args[0].equalsIgnoreCase("requests") || args[0].equalsIgnoreCase("r")) {
+            if (!player.hasPermission(Permissions.TRADE_ACCEPT.getPermission())) {
+                player.sendMessage(i18n.getString(Messages.Command.INSUFFICIENT_PERMISSION));
+                return true;
+            }
+
+            List<TradeRequest> requests = factory.getRequests(player);
+            if (requests.isEmpty()) {
+                player.sendMessage(i18n.getVarString(Messages.General.NO_PENDING_REQUESTS)
+                    .setVariable("player", player.getName())
+                    .toString());
+                return true;
+            }
+
+            StringBuilder builder = new StringBuilder();
+            for (TradeRequest request : requests) {
+                if (builder.length() > 0) {
+                    builder.append(ChatColor.GRAY).append(", ");
+                }
+
+                long remainingSeconds = (request.getRemainingTicks() + 19) / 20;
+                builder.append(ChatColor.WHITE).append(request.getInitiator().getName())
+                    .append(ChatColor.GRAY).append(" (").append(remainingSeconds).append("s)");
+            }
+
+            player.sendMessage(i18n.getVarString(Messages.General.PENDING_REQUESTS)
+                .setVariable("requests", builder.toString())
                 .toString());
-			player.sendMessage(i18n.getVarString(Messages.General.TRADE_DECLINED)
-                .setVariable("player", trade.getInitiator().getName())
+		} else if (args[0].equalsIgnoreCase("nearby") || args[0].equalsIgnoreCase("n")) {
+            if (!player.hasPermission(Permissions.TRADE_NEARBY.getPermission())) {
+                player.sendMessage(i18n.getString(Messages.Command.INSUFFICIENT_PERMISSION));
+                return true;
+            }
+
+            boolean allowsCreative = main.getConfiguration().allowsCreativeTrading();
+            StringBuilder builder = new StringBuilder();
+
+            for (Player nearby : spatialIndex.getPlayersInRange(player)) {
+                if (!allowsCreative && nearby.getGameMode() == GameMode.CREATIVE) {
+                    continue;
+                }
+
+                if (builder.length() > 0) {
+                    builder.append(ChatColor.GRAY).append(", ");
+                }
+
+                builder.append(factory.isInvolvedInTrade(nearby) ? ChatColor.GRAY : ChatColor.WHITE)
+                    .append(nearby.getName());
+            }
+
+            if (builder.length() == 0) {
+                player.sendMessage(i18n.getString(Messages.Command.NO_PLAYERS_NEARBY));
+                return true;
+            }
+
+            player.sendMessage(i18n.getVarString(Messages.Command.PLAYERS_NEARBY)
+                .setVariable("players", builder.toString())
                 .toString());
 		} else if (args[0].equalsIgnoreCase("reload")) {
 			if (!player.hasPermission(Permissions.RELOAD.getPermission())) {
@@ -178,6 +224,41 @@ public class CommandTrade implements CommandExecutor {
             stack.setItemMeta(meta);
             player.setItemInHand(stack);
             player.sendMessage(i18n.getString(Messages.Command.LORE_APPLIED));
+        } else if (args[0].equalsIgnoreCase("timings")) {
+            if (!player.hasPermission(Permissions.TIMINGS.getPermission())) {
+                player.sendMessage(i18n.getString(Messages.Command.INSUFFICIENT_PERMISSION));
+                return true;
+            }
+
+            TickDriver driver = main.getTickDriver();
+            player.sendMessage(i18n.getVarString(Messages.Command.TIMINGS_HEADER)
+                .setVariable("budget", formatMillis(driver.getBudgetNanos()))
+                .toString());
+
+            for (TickDriver.Phase phase : TickDriver.Phase.values()) {
+                TickStats stats = driver.getStats(phase);
+                player.sendMessage(i18n.getVarString(Messages.Command.TIMINGS_PHASE)
+                    .setVariable("phase", phase.name())
+                    .setVariable("avg", formatMillis(stats.getAverageNanos()))
+                    .setVariable("max", formatMillis(stats.getMaxNanos()))
+                    .setVariable("backlog", String.valueOf(stats.getBacklog()))
+                    .toString());
+            }
+
+            EconomyGateway gateway = main.getEconomyGateway();
+            if (gateway != null) {
+                TickStats latency = gateway.getLatency();
+                player.sendMessage(i18n.getVarString(Messages.Command.TIMINGS_ECONOMY)
+                    .setVariable("avg", formatMillis(latency.getAverageNanos()))
+                    .setVariable("max", formatMillis(latency.getMaxNanos()))
+                    .setVariable("queued", String.valueOf(latency.getBacklog()))
+                    .setVariable("calls", String.valueOf(gateway.getCalls()))
+                    .setVariable("failed", String.valueOf(gateway.getFailures()))
+                    .setVariable("timeouts", String.valueOf(gateway.getTimeouts()))
+                    .setVariable("rejected", String.valueOf(gateway.getRejections()))
+                    .setVariable("status", gateway.isOpen() ? i18n.getString(Messages.Command.TIMINGS_ECONOMY_PAUSED) : "")
+                    .toString());
+            }
         } else if (args[0].equalsIgnoreCase("version")) {
             PluginDescriptionFile desc = main.getDescription();
 
@@ -210,13 +291,6 @@ public class CommandTrade implements CommandExecutor {
 				return true;
 			}
 			
-			int maxDistance = main.getConfiguration().getMaximumTradeDistance();
-			if ((player.getWorld() != tradePartner.getWorld() || player.getLocation().distanceSquared(tradePartner.getLocation()) > maxDistance * 2) &&
-                    maxDistance != TradeConfiguration.NO_MAX_DISTANCE) {
-                player.sendMessage(i18n.getString(Messages.Command.PARTNER_TOO_FAR_AWAY));
-				return true;
-			}
-
             if (!worldControlManager.isAllowed(player.getWorld())) {
                 player.sendMessage(i18n.getString(Messages.Command.CANNOT_TRADE_IN_WORLD));
                 return true;
@@ -226,11 +300,47 @@ public class CommandTrade implements CommandExecutor {
                 player.sendMessage(i18n.getString(Messages.Command.CANNOT_TRADE_IN_WORLD_PARTNER));
                 return true;
             }
+
+            if (!spatialIndex.isInRange(player, tradePartner)) {
+                player.sendMessage(i18n.getString(Messages.Command.PARTNER_TOO_FAR_AWAY));
+                return true;
+            }
 			
 			factory.initiateTrade(player, tradePartner);
 		}
 		
 		return true;
 	}
+	
+	private static String formatMillis(long nanos) {
+		return String.format("%.3f", nanos / 1000000D);
+	}
+	
+	private TradeRequest findRequest(Player player, String[] args) {
+		TradeFactory factory = main.getFactory();
+		TradeRequest request;
+		
+		if (args.length > 1) {
+			Player initiator = Bukkit.getPlayer(args[1]);
+			request = initiator != null ? factory.getRequest(player, initiator) : null;
+			
+			if (request == null) {
+                player.sendMessage(i18n.getVarString(Messages.General.REQUEST_NOT_FOUND)
+                    .setVariable("player", args[1])
+                    .toString());
+			}
+		} else {
+			//Without a name the most recent request is picked
+			request = factory.getLatestRequest(player);
+			
+			if (request == null) {
+				player.sendMessage(i18n.getVarString(Messages.General.NO_PENDING_REQUESTS)
+                    .setVariable("player", player.getName())
+                    .toString());
+			}
+		}
+		
+		return request;
+	}
 
 }
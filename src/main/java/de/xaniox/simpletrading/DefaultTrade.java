@@ -20,16 +20,23 @@ package de.xaniox.simpletrading;
 import com.google.common.collect.Lists;
 import de.xaniox.simpletrading.config.ItemControlManager;
 import de.xaniox.simpletrading.config.TradeConfiguration;
+import de.xaniox.simpletrading.config.TradeLayout;
+import de.xaniox.simpletrading.event.EventTopic;
+import de.xaniox.simpletrading.event.TradeCancelEvent;
+import de.xaniox.simpletrading.event.TradeContractEvent;
+import de.xaniox.simpletrading.event.TradeOfferChangeEvent;
+import de.xaniox.simpletrading.event.TradeOfferChangeEvent.OfferType;
 import de.xaniox.simpletrading.i18n.I18N;
 import de.xaniox.simpletrading.i18n.I18NManager;
 import de.xaniox.simpletrading.i18n.Messages;
+import de.xaniox.simpletrading.scheduler.TaskScheduler;
+import de.xaniox.simpletrading.scheduler.TickDriver;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Sound;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
 import org.bukkit.event.inventory.ClickType;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
@@ -38,43 +45,20 @@ import org.bukkit.event.inventory.InventoryType.SlotType;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryView;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
 import org.bukkit.inventory.meta.ItemMeta;
-import org.bukkit.material.MaterialData;
 
-import java.text.DecimalFormat;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @SuppressWarnings("deprecation")
 public class DefaultTrade implements Trade {
 
-	private static final int INVENTORY_SIZE = 6 * 9;
-	private static final int[] SEPERATOR_INDEXES = { 0, 1, 7, 8, 9, 13, 17, 22, 31, 40, 49 };
-    private static final String[] LEVEL_UP_SEARCH = {"LEVEL_UP", "PLAYER_LEVELUP"};
-    private static final String[] CLICK_SEARCH = {"UI_BUTTON_CLICK", "CLICK"};
-	
-	private static final MaterialData UNCONFIRMED_STATUS_MATERIAL_DATA = new MaterialData(Material.STAINED_GLASS, (byte) 14);
-	private static final MaterialData CONFIRMED_STATUS_MATERIAL_DATA = new MaterialData(Material.STAINED_GLASS, (byte) 5);
-	
-	private static final int EXP_INFO_INDEX = 6;
-	private static final int ACCEPT_TRADE_INDEX = 3;
-	private static final int CONFIRMATION_INFO_INDEX = 4;
-	private static final int DECLINE_TRADE_INDEX = 5;
-	private static final int MONEY_INFO_INDEX = 2;
-	private static final int ADD_MONEY_1_INDEX = 10;
-	private static final int ADD_MONEY_2_INDEX = 11;
-	private static final int ADD_MONEY_3_INDEX = 12;
-	private static final int ADD_EXP_1_INDEX = 14;
-    private static final int ADD_EXP_2_INDEX = 15;
-    private static final int ADD_EXP_3_INDEX = 16;
-	
+	private static final int PLAYER_STORAGE_SIZE = 36;
 	private static final float ADD_PITCH = 1.5F;
 	private static final float REMOVE_PITCH = 1.0F;
-    private static final DecimalFormat LEVEL_FORMAT = new DecimalFormat("0");
-
-    static {
-        LEVEL_FORMAT.setPositivePrefix("+");
-    }
 	
 	private final TradePlayer initiator;
 	private final TradePlayer partner;
@@ -84,9 +68,18 @@ public class DefaultTrade implements Trade {
 	private final I18N i18n = I18NManager.getGlobal();
 	private final Economy econ;
 	private final ItemControlManager controlManager;
+	private final TradeInventoryPool inventoryPool;
+	private final TradeInventoryTemplate template;
+	private final TradeLayout layout;
+	private final TradeStatusRenderer renderer;
 	
 	private StateChangedListener listener;
-	private TradeState state;
+	private final AtomicReference<TradeState> state;
+	private final AtomicBoolean flushScheduled;
+	private final Runnable flushTask;
+	//Bit n is set if slot n of the player's inventory has to be rendered from the offers
+	private final AtomicLong initiatorDirtySlots;
+	private final AtomicLong partnerDirtySlots;
 	
 	public DefaultTrade(Player initiator, Player partner, TradeConfiguration config, Economy econ,
 			ItemControlManager controlManager, SimpleTrading plugin) {
@@ -96,7 +89,25 @@ public class DefaultTrade implements Trade {
 		this.config = config;
 		this.econ = econ;
 		this.controlManager = controlManager;
-		this.state = TradeState.REQUESTED;
+		//Keep the layout of this trade even if the configuration is reloaded
+		this.inventoryPool = plugin.getInventoryPool();
+		this.template = inventoryPool.getTemplate();
+		this.layout = template.getLayout();
+		this.renderer = new TradeStatusRenderer(this.initiator, this.partner, config, plugin.getMoneyFormat(), plugin.usesVault(),
+				plugin.getPlatformAdapter(), layout);
+		this.initiator.setOffer(new TradeOffer(layout.getOfferSlotCount(), layout.getPageCount()));
+		this.partner.setOffer(new TradeOffer(layout.getOfferSlotCount(), layout.getPageCount()));
+		this.state = new AtomicReference<TradeState>(TradeState.REQUESTED);
+		this.flushScheduled = new AtomicBoolean();
+		this.initiatorDirtySlots = new AtomicLong();
+		this.partnerDirtySlots = new AtomicLong();
+		this.flushTask = new Runnable() {
+			
+			@Override
+			public void run() {
+				flush();
+			}
+		};
 	}
 	
 	@Override
@@ -111,7 +122,7 @@ public class DefaultTrade implements Trade {
 
 	@Override
 	public TradeState getState() {
-		return state;
+		return state.get();
 	}
 	
 	public void setListener(StateChangedListener listener) {
@@ -119,16 +130,48 @@ public class DefaultTrade implements Trade {
 	}
 	
 	@Override
-	public void setState(TradeState state) {
-		this.state = state;
+	public boolean setState(TradeState newState) {
+		return transition(newState) != null;
+	}
+	
+	@Override
+	public boolean compareAndSetState(TradeState expect, TradeState update) {
+		if (!expect.canTransitionTo(update) || !state.compareAndSet(expect, update)) {
+			return false;
+		}
 		
+		notifyListener(update);
+		return true;
+	}
+	
+	//Returns the previous state or null if the transition is not allowed
+	//from the current state. Exactly one caller can win each transition
+	private TradeState transition(TradeState newState) {
+		while (true) {
+			TradeState current = state.get();
+			if (!current.canTransitionTo(newState)) {
+				return null;
+			}
+			
+			if (state.compareAndSet(current, newState)) {
+				notifyListener(newState);
+				return current;
+			}
+		}
+	}
+	
+	private void notifyListener(TradeState newState) {
 		if (listener != null) {
-			listener.onStateChanged(this, state);
+			listener.onStateChanged(this, newState);
 		}
 	}
 	
 	@Override
-	public void accept() {
+	public boolean accept() {
+		if (!compareAndSetState(TradeState.REQUESTED, TradeState.TRADING)) {
+			return false;
+		}
+		
 		final int maxInvNameLength = 32;
 		String inventoryTitleInitiator = config.getInventoryName(partner.getName());
 		String inventoryTitlePartner = config.getInventoryName(initiator.getName());
@@ -141,217 +184,47 @@ public class DefaultTrade implements Trade {
 			inventoryTitlePartner = inventoryTitlePartner.substring(0, maxInvNameLength);
 		}
 		
-		Inventory initiatorInventory = Bukkit.createInventory(null, INVENTORY_SIZE, inventoryTitleInitiator);
-		Inventory partnerInventory = Bukkit.createInventory(null, INVENTORY_SIZE, inventoryTitlePartner);
+		Inventory initiatorInventory = inventoryPool.acquire(inventoryTitleInitiator);
+		Inventory partnerInventory = inventoryPool.acquire(inventoryTitlePartner);
 		
-		initializeInventory(initiatorInventory);
-		initializeInventory(partnerInventory);
+		initiator.setInventory(initiatorInventory, inventoryTitleInitiator);
+		partner.setInventory(partnerInventory, inventoryTitlePartner);
 		
-		initiator.setInventory(initiatorInventory);
-		partner.setInventory(partnerInventory);
-		
-		initiator.getPlayer().openInventory(initiatorInventory);
-		partner.getPlayer().openInventory(partnerInventory);
-		
-		setState(TradeState.TRADING);
-	}
-	
-	private void initializeInventory(Inventory inv) {
-		ItemStack seperator = config.getSeperatorBlockData().newItemStack();
-		ItemMeta seperatorMeta = seperator.getItemMeta();
-		seperatorMeta.setDisplayName(ChatColor.ITALIC.toString());
-		seperator.setItemMeta(seperatorMeta);
-		
-		for (int seperatorIndex : SEPERATOR_INDEXES) {
-			inv.setItem(seperatorIndex, seperator);
+		if (plugin.usesVault() && config.usesMoneyTrading()) {
+			//Money clicks are checked against this snapshot instead of querying the economy each time
+			snapshotBalance(initiator);
+			snapshotBalance(partner);
 		}
 		
-		ItemStack expInfoItemStack;
+		//Shows the page number on the page buttons and fills in the player specific status items
+		long initialSlots = layout.getPageCount() > 1 ? layout.getPageAreaMask() : 0L;
+		renderFor(initiator, initialSlots);
+		renderFor(partner, initialSlots);
 		
-		if (config.usesXpTrading()) {
-			expInfoItemStack = config.getXpStatusBlockData().newItemStack();
-			ItemMeta expInfoMeta = expInfoItemStack.getItemMeta();
-			expInfoMeta.setDisplayName(i18n.getString(Messages.Inventory.EXP_INFO_TITLE));
-			List<String> expLore = Lists.newArrayList();
-			expLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                    .setVariable("player", initiator.getName())
-                    .setVariable("offer", "0")
-                    .toString());
-			expLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                    .setVariable("player", partner.getName())
-                    .setVariable("offer", "0")
-                    .toString());
-			expInfoMeta.setLore(expLore);
-			expInfoItemStack.setItemMeta(expInfoMeta);
-		} else {
-			expInfoItemStack = seperator;
-		}
-		
-		ItemStack acceptItemStack = config.getAcceptBlockData().newItemStack(1);
-		ItemMeta acceptMeta = acceptItemStack.getItemMeta();
-		acceptMeta.setDisplayName(i18n.getString(Messages.Inventory.ACCEPT_TRADE_TITLE));
-		acceptItemStack.setItemMeta(acceptMeta);
-		
-		ItemStack unconfirmedStatusItemStack = UNCONFIRMED_STATUS_MATERIAL_DATA.toItemStack(1);
-		ItemMeta unconfirmedStatusMeta = unconfirmedStatusItemStack.getItemMeta();
-		unconfirmedStatusMeta.setDisplayName(i18n.getVarString(Messages.Inventory.TRADE_STATUS_TITLE)
-			.setVariable("color", ChatColor.RED.toString())
-			.toString());
-		unconfirmedStatusMeta.setLore(Lists.newArrayList(i18n.getString(Messages.Inventory.WAITING_FOR_OTHER_PLAYER_LORE)));
-		unconfirmedStatusItemStack.setItemMeta(unconfirmedStatusMeta);
-		
-		ItemStack declineItemStack = config.getDeclineBlockData().newItemStack(1);
-		ItemMeta declineMeta = declineItemStack.getItemMeta();
-		declineMeta.setDisplayName(i18n.getString(Messages.Inventory.DECLINE_TRADE_TITLE));
-		declineItemStack.setItemMeta(declineMeta);
-		
-		ItemStack moneyInfoItemStack = seperator;
-		ItemStack addMoney1ItemStack = seperator;
-		ItemStack addMoney2ItemStack = seperator;
-		ItemStack addMoney3ItemStack = seperator;
-
-        int money1Value = config.getMoneyValue1();
-        int money2Value = config.getMoneyValue2();
-        int money3Value = config.getMoneyValue3();
-		
-		boolean usesVault = plugin.usesVault();
-        boolean usesMoneyTrading = config.usesMoneyTrading();
-
-		if (usesVault && usesMoneyTrading) {
-			moneyInfoItemStack = config.getMoneyStatusBlockData().newItemStack();
-			ItemMeta moneyMeta = moneyInfoItemStack.getItemMeta();
-			moneyMeta.setDisplayName(i18n.getString(Messages.Inventory.MONEY_INFO_TITLE));
-			List<String> moneyLore = Lists.newArrayList();
-			moneyLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                    .setVariable("player", initiator.getName())
-                    .setVariable("offer", econ.format(0))
-                    .toString());
-			moneyLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                    .setVariable("player", partner.getName())
-                    .setVariable("offer", econ.format(0))
-                    .toString());
-			moneyMeta.setLore(moneyLore);
-			moneyInfoItemStack.setItemMeta(moneyMeta);
-			
-			List<String> addMoneyLore = Lists.newArrayList(i18n
-                .getString(Messages.Inventory.ADD_MONEY_LORE)
-                .split("\n"));
-
-			addMoney1ItemStack = config.getMoneyAddRemoveBlockData().newItemStack();
-			ItemMeta metaMoney1 = addMoney1ItemStack.getItemMeta();
-			metaMoney1.setDisplayName(i18n.getVarString(Messages.Inventory.ADD_REMOVE_MONEY_LORE)
-                    .setVariable("money", econ.format(money1Value))
-                    .toString());
-			metaMoney1.setLore(addMoneyLore);
-			addMoney1ItemStack.setItemMeta(metaMoney1);
-			
-			addMoney2ItemStack = config.getMoneyAddRemoveBlockData().newItemStack();
-			ItemMeta metaMoney2 = addMoney2ItemStack.getItemMeta();
-			metaMoney2.setDisplayName(i18n.getVarString(Messages.Inventory.ADD_REMOVE_MONEY_LORE)
-                    .setVariable("money", econ.format(money2Value))
-                    .toString());
-			metaMoney2.setLore(addMoneyLore);
-			addMoney2ItemStack.setItemMeta(metaMoney2);
-			
-			addMoney3ItemStack = config.getMoneyAddRemoveBlockData().newItemStack();
-			ItemMeta metaMoney3 = addMoney3ItemStack.getItemMeta();
-			metaMoney3.setDisplayName(i18n.getVarString(Messages.Inventory.ADD_REMOVE_MONEY_LORE)
-                    .setVariable("money", econ.format(money3Value))
-                    .toString());
-			metaMoney3.setLore(addMoneyLore);
-			addMoney3ItemStack.setItemMeta(metaMoney3);
-		}
-		
-		ItemStack addExp1ItemStack;
-        ItemStack addExp2ItemStack;
-        ItemStack addExp3ItemStack;
-
-        int expValue1 = config.getExpValue1();
-        int expValue2 = config.getExpValue2();
-        int expValue3 = config.getExpValue3();
-
-		if (config.usesXpTrading()) {
-			addExp1ItemStack = config.getXpAddRemoveBlockData().newItemStack();
-            addExp2ItemStack = config.getXpAddRemoveBlockData().newItemStack();
-            addExp3ItemStack = config.getXpAddRemoveBlockData().newItemStack();
-
-			ItemMeta addExpLevelMeta = addExp1ItemStack.getItemMeta();
-			addExpLevelMeta.setDisplayName(i18n.getVarString(Messages.Inventory.ADD_EXP_TITLE)
-                .setVariable("exp", String.valueOf(expValue1))
-                .toString());
-			List<String> addExpLevelLore = Lists.newArrayList(i18n.getVarString(Messages.Inventory.ADD_EXP_LORE)
-                    .setVariable("exp", String.valueOf(expValue1))
-                    .toString()
-                    .split("\n"));
-			addExpLevelMeta.setLore(addExpLevelLore);
-			addExp1ItemStack.setItemMeta(addExpLevelMeta);
-
-            addExpLevelMeta = addExp2ItemStack.getItemMeta();
-            addExpLevelMeta.setDisplayName(i18n.getVarString(Messages.Inventory.ADD_EXP_TITLE)
-                    .setVariable("exp", String.valueOf(expValue2))
-                    .toString());
-            addExpLevelLore = Lists.newArrayList(i18n.getVarString(Messages.Inventory.ADD_EXP_LORE)
-                    .setVariable("exp", String.valueOf(expValue2))
-                    .toString()
-                    .split("\n"));
-            addExpLevelMeta.setLore(addExpLevelLore);
-            addExp2ItemStack.setItemMeta(addExpLevelMeta);
-
-            addExpLevelMeta = addExp3ItemStack.getItemMeta();
-            addExpLevelMeta.setDisplayName(i18n.getVarString(Messages.Inventory.ADD_EXP_TITLE)
-                    .setVariable("exp", String.valueOf(expValue3))
-                    .toString());
-            addExpLevelLore = Lists.newArrayList(i18n.getVarString(Messages.Inventory.ADD_EXP_LORE)
-                    .setVariable("exp", String.valueOf(expValue3))
-                    .toString()
-                    .split("\n"));
-            addExpLevelMeta.setLore(addExpLevelLore);
-            addExp3ItemStack.setItemMeta(addExpLevelMeta);
-		} else {
-			addExp1ItemStack = seperator;
-            addExp2ItemStack = seperator;
-            addExp3ItemStack = seperator;
-		}
-		
-		inv.setItem(EXP_INFO_INDEX, expInfoItemStack);
-		inv.setItem(ACCEPT_TRADE_INDEX, acceptItemStack);
-		inv.setItem(CONFIRMATION_INFO_INDEX, unconfirmedStatusItemStack);
-		inv.setItem(DECLINE_TRADE_INDEX, declineItemStack);
-		inv.setItem(MONEY_INFO_INDEX, moneyInfoItemStack);
-		inv.setItem(ADD_MONEY_1_INDEX, addMoney1ItemStack);
-		inv.setItem(ADD_MONEY_2_INDEX, addMoney2ItemStack);
-		inv.setItem(ADD_MONEY_3_INDEX, addMoney3ItemStack);
-		inv.setItem(ADD_EXP_1_INDEX, addExp1ItemStack);
-        inv.setItem(ADD_EXP_2_INDEX, addExp2ItemStack);
-        inv.setItem(ADD_EXP_3_INDEX, addExp3ItemStack);
+		openFor(initiator);
+		openFor(partner);
+		return true;
 	}
 	
 	@Override
 	public void stop(StopCause cause, TradePlayer who) {
 		TradePlayer other = who == initiator ? partner : initiator;
 		
-		TradeState state = getState();
-		setState(TradeState.CANCELLED);
+		TradeState previous = transition(TradeState.CANCELLED);
+		if (previous == null) {
+			//Already stopped or contracted
+			return;
+		}
 		
-		if (state == TradeState.TRADING) {
-			reclaimItems(initiator);
-			reclaimItems(partner);
-			
-			initiator.getPlayer().closeInventory();
-			partner.getPlayer().closeInventory();
-
-			if (!plugin.isDisabling()) {
-				Bukkit.getScheduler().runTask(plugin, new Runnable() {
-
-					@Override
-					public void run() {
-						initiator.getPlayer().updateInventory();
-						partner.getPlayer().updateInventory();
-					}
-				});
-			}
+		if (previous == TradeState.TRADING || previous == TradeState.CONTRACTING) {
+			closeFor(initiator);
+			closeFor(partner);
 		}
 		
+		EventTopic<TradeCancelEvent> cancelTopic = plugin.getEventBus().getCancelTopic();
+		if (cancelTopic.hasSubscribers()) {
+			cancelTopic.publish(new TradeCancelEvent(this, cause, who));
+		}
 		
 		switch (cause) {
 		case DEATH:
@@ -391,6 +264,10 @@ public class DefaultTrade implements Trade {
                 .setVariable("player", who.getName())
                 .toString());
 			break;
+		case SETTLEMENT_FAILED:
+			who.getPlayer().sendMessage(i18n.getString(Messages.General.CANCEL_SETTLEMENT_FAILED));
+			other.getPlayer().sendMessage(i18n.getString(Messages.General.CANCEL_SETTLEMENT_FAILED));
+			break;
 		case SERVER_SHUTDOWN:
 			who.getPlayer().sendMessage(i18n.getString(Messages.General.CANCEL_SERVER_SHUTDOWN));
 			other.getPlayer().sendMessage(i18n.getString(Messages.General.CANCEL_SERVER_SHUTDOWN));
@@ -399,20 +276,94 @@ public class DefaultTrade implements Trade {
 		}
 	}
 	
-	private void reclaimItems(TradePlayer player) {
-		Inventory inv = player.getInventory();
+	private void openFor(final TradePlayer player) {
+		runFor(player, new Runnable() {
+			
+			@Override
+			public void run() {
+				player.getPlayer().openInventory(player.getInventory());
+			}
+		});
+	}
 	
-		for (int y = 2; y < 6; y++) {
-			for (int x = 0; x < 4; x++) {
-				int slot = y * 9 + x;
+	private void closeFor(final TradePlayer player) {
+		runFor(player, new Runnable() {
+			
+			@Override
+			public void run() {
+				reclaimItems(player);
+				player.getPlayer().closeInventory();
 				
-				ItemStack current = inv.getItem(slot);
-				if (current != null) {
-					player.getPlayer().getInventory().addItem(current);
-				}
+				//Offered items only live in the offer model, so the closed inventory can be reused
+				inventoryPool.release(player.getInventory(), player.getInventoryTitle());
+			}
+		}, new Runnable() {
+			
+			@Override
+			public void run() {
+				dropOffer(player.getOffer(), player.getPlayer());
+			}
+		});
+		
+		if (!plugin.isDisabling()) {
+			plugin.getTickDriver().defer(TickDriver.Phase.DEFERRED, player.getPlayer(), new Runnable() {
 				
-				inv.setItem(slot, null);
+				@Override
+				public void run() {
+					player.getPlayer().updateInventory();
+				}
+			});
+		}
+	}
+	
+	private void runFor(TradePlayer player, Runnable task) {
+		runFor(player, task, null);
+	}
+	
+	private void runFor(TradePlayer player, Runnable task, Runnable retired) {
+		if (plugin.isDisabling()) {
+			//No new tasks can be scheduled while the plugin is disabling
+			task.run();
+			return;
+		}
+		
+		//Player specific work must run on the thread owning the player. The retired
+		//task runs instead if the player is removed before that
+		TaskScheduler scheduler = plugin.getTaskScheduler();
+		scheduler.execute(player.getPlayer(), task, retired);
+	}
+	
+	private void dropOffer(final TradeOffer offer, Player at) {
+		//The player is gone, drop the items where the player has last been instead of losing them
+		final Location location = at.getLocation();
+		
+		plugin.getTaskScheduler().execute(location, new Runnable() {
+			
+			@Override
+			public void run() {
+				for (int index = 0; index < offer.getCapacity(); index++) {
+					ItemStack current = offer.get(index);
+					if (current == null) {
+						continue;
+					}
+					
+					offer.set(index, null);
+					location.getWorld().dropItem(location, current);
+				}
+			}
+		});
+	}
+	
+	private void reclaimItems(TradePlayer player) {
+		TradeOffer offer = player.getOffer();
+		
+		for (int index = 0; index < offer.getCapacity(); index++) {
+			ItemStack current = offer.get(index);
+			if (current != null) {
+				player.getPlayer().getInventory().addItem(current);
 			}
+			
+			offer.set(index, null);
 		}
 	}
 
@@ -448,6 +399,10 @@ public class DefaultTrade implements Trade {
 		
 		ClickType clickType = event.getClick();
 		int slot = event.getSlot();
+		
+		//Only the double click directly following a single move may use the moved item
+		ItemStack lastMovedItem = tradePlayer.getLastMovedItem();
+		tradePlayer.setLastMovedItem(null);
 		TradeAction action = TradeAction.NOTHING;
 		
 		int moneyAdding = 0;
@@ -456,44 +411,39 @@ public class DefaultTrade implements Trade {
 		if (isPlayerInventory) {
 			action = TradeAction.MOVE_ITEM_TO_TRADE_INVENTORY;
 		} else {
-            int moneyValue1 = config.getMoneyValue1();
-            int moneyValue2 = config.getMoneyValue2();
-            int moneyValue3 = config.getMoneyValue3();
-
-            int expValue1 = config.getExpValue1();
-            int expValue2 = config.getExpValue2();
-            int expValue3 = config.getExpValue3();
-
-			if (slot == ADD_MONEY_1_INDEX) {
-				moneyAdding = moneyValue1;
+			//The layout has been compiled into a slot -> action table
+			switch (layout.getAction(slot)) {
+			case ADD_MONEY:
+				moneyAdding = layout.getValue(slot);
 				action = TradeAction.ADD_MONEY;
-			} else if (slot == ADD_MONEY_2_INDEX) {
-				moneyAdding = moneyValue2;
-				action = TradeAction.ADD_MONEY;
-			} else if (slot == ADD_MONEY_3_INDEX) {
-                moneyAdding = moneyValue3;
-                action = TradeAction.ADD_MONEY;
-            } else if (slot == ADD_EXP_1_INDEX && config.usesXpTrading()) {
-                expAdding = expValue1;
-                action = TradeAction.ADD_EXP;
-            } else if (slot == ADD_EXP_2_INDEX && config.usesXpTrading()) {
-                expAdding = expValue2;
-                action = TradeAction.ADD_EXP;
-            } else if (slot == ADD_EXP_3_INDEX && config.usesXpTrading()) {
-                expAdding = expValue3;
-                action = TradeAction.ADD_EXP;
-			} else if (slot == ACCEPT_TRADE_INDEX) {
+				break;
+			case ADD_EXP:
+				if (config.usesXpTrading()) {
+					expAdding = layout.getValue(slot);
+					action = TradeAction.ADD_EXP;
+				}
+				break;
+			case ACCEPT:
 				action = TradeAction.ACCEPT;
-			} else if (slot == DECLINE_TRADE_INDEX) {
+				break;
+			case DECLINE:
 				action = TradeAction.DECLINE;
-			} else {
-				if (slot % 9 < 4 && slot / 9 > 1) {
-					action = TradeAction.MOVE_ITEM_TO_PLAYER_INVENTORY;
-				}
+				break;
+			case OFFER:
+				action = TradeAction.MOVE_ITEM_TO_PLAYER_INVENTORY;
+				break;
+			case PREVIOUS_PAGE:
+				action = TradeAction.PREVIOUS_PAGE;
+				break;
+			case NEXT_PAGE:
+				action = TradeAction.NEXT_PAGE;
+				break;
+			default:
+				break;
 			}
 		}
 
-        Sound clickSound = getSoundEnumType(CLICK_SEARCH);
+        Sound clickSound = plugin.getPlatformAdapter().getClickSound();
 
 		//Process the calculated data
 		switch (action) {
@@ -511,6 +461,20 @@ public class DefaultTrade implements Trade {
 				plugin.getFactory().stopTrade(this, StopCause.DECLINE, player);
 			}
 			break;
+		case PREVIOUS_PAGE:
+		case NEXT_PAGE:
+			int pageCount = layout.getPageCount();
+			if (pageCount <= 1) {
+				return;
+			}
+			
+			int page = (tradePlayer.getPage() + (action == TradeAction.NEXT_PAGE ? 1 : pageCount - 1)) % pageCount;
+			showPage(tradePlayer, page);
+			
+			if (clickSound != null) {
+				player.playSound(player.getLocation(), clickSound, 1.0F, ADD_PITCH);
+			}
+			break;
 		case ADD_EXP:
 			int newExpOffer = tradePlayer.getExpOffer();
 
@@ -541,6 +505,7 @@ public class DefaultTrade implements Trade {
 
 			tradePlayer.setExpOffer(newExpOffer);
 			declineAll();
+			fireOfferChange(tradePlayer, OfferType.EXP);
 			break;
 		case ADD_MONEY:
 			if (!usesVault || !config.usesMoneyTrading()) {
@@ -549,13 +514,22 @@ public class DefaultTrade implements Trade {
 
 			int newMoneyOffer = tradePlayer.getMoneyOffer();
             int maxMoneyAmount = config.getMaxMoneyTrading();
-
+            
             if (clickType == ClickType.LEFT) {
+				//Clicks are checked against the snapshot, the settlement checks the real balance
+				if (!tradePlayer.hasBalance()) {
+					//The snapshot has not arrived yet or could not be fetched, never block the tick for it
+					player.sendMessage(i18n.getString(Messages.General.BALANCE_LOADING));
+					snapshotBalance(tradePlayer);
+					return;
+				}
+				
 				newMoneyOffer += moneyAdding;
 				
-				if (newMoneyOffer > econ.getBalance(player)) {
-					// Not enough money
+				if (newMoneyOffer > tradePlayer.getBalance()) {
+					// Not enough money, the balance may have changed since the snapshot
 					player.sendMessage(i18n.getString(Messages.General.NOT_ENOUGH_MONEY));
+					snapshotBalance(tradePlayer);
 					return;
 				}
 
@@ -583,13 +557,32 @@ public class DefaultTrade implements Trade {
 			
 			tradePlayer.setMoneyOffer(newMoneyOffer);
 			declineAll();
+			fireOfferChange(tradePlayer, OfferType.MONEY);
 			break;
 		default:
 			break;
 		}
 		
 		if (action == TradeAction.MOVE_ITEM_TO_PLAYER_INVENTORY || action == TradeAction.MOVE_ITEM_TO_TRADE_INVENTORY) {
-			ItemStack stack = event.getCurrentItem();
+			TradeOffer offer = tradePlayer.getOffer();
+			int offerIndex = TradeLayout.NO_SLOT;
+			ItemStack stack;
+			
+			if (action == TradeAction.MOVE_ITEM_TO_PLAYER_INVENTORY) {
+				//The offer model is authoritative, the inventory only shows the current page
+				offerIndex = offer.getIndex(tradePlayer.getPage(), layout.getOfferIndex(slot));
+				stack = offer.get(offerIndex);
+			} else {
+				stack = event.getCurrentItem();
+			}
+			
+			boolean bulkMove = clickType == ClickType.SHIFT_LEFT || clickType == ClickType.SHIFT_RIGHT
+					|| clickType == ClickType.DOUBLE_CLICK;
+			
+			if (clickType == ClickType.DOUBLE_CLICK && (stack == null || stack.getType() == Material.AIR)) {
+				//The first click of a double click already moved the clicked stack
+				stack = lastMovedItem;
+			}
 			
 			if (!controlManager.isAllowed(stack)) {
 				// This item is not tradeable
@@ -601,6 +594,22 @@ public class DefaultTrade implements Trade {
 				return;
 			}
 
+			if (bulkMove) {
+				//Move every similar stack in one pass
+				ItemStack similar = stack.clone();
+				int moved = action == TradeAction.MOVE_ITEM_TO_TRADE_INVENTORY
+						? moveAllToTradeInventory(tradePlayer, similar)
+						: moveAllToPlayerInventory(tradePlayer, similar);
+				
+				if (moved > 0) {
+					declineAll();
+					fireOfferChange(tradePlayer, OfferType.ITEMS);
+					requestRender(tradePlayer);
+				}
+				
+				return;
+			}
+			
 			ItemStack stackClone = stack.clone();
 			
 			int newStackAmount;
@@ -620,6 +629,8 @@ public class DefaultTrade implements Trade {
 				return;
 			}
 			
+			tradePlayer.setLastMovedItem(stack.clone());
+			
 			if (action == TradeAction.MOVE_ITEM_TO_TRADE_INVENTORY) {
 				int untransferred = addToTradeInventory(tradePlayer, stackClone);
 				if (untransferred != 0) {
@@ -641,16 +652,20 @@ public class DefaultTrade implements Trade {
 				stack = null;
 			}
 			
-			event.setCurrentItem(stack);
+			if (action == TradeAction.MOVE_ITEM_TO_PLAYER_INVENTORY) {
+				setOfferItem(tradePlayer, offerIndex, stack);
+			} else {
+				event.setCurrentItem(stack);
+			}
 			
 			declineAll();			
-			reflectChanges(tradePlayer);
+			fireOfferChange(tradePlayer, OfferType.ITEMS);
 		}
 		
-		updateInventoryStatus();
+		requestRender(tradePlayer);
 	}
 
-    @EventHandler
+    @Override
     public void onInventoryDrag(InventoryDragEvent event) {
         Player player = (Player) event.getWhoClicked();
 
@@ -663,79 +678,231 @@ public class DefaultTrade implements Trade {
         event.setCancelled(true);
     }
 	
+	private void fireOfferChange(TradePlayer player, OfferType type) {
+		//Nothing is allocated on the click path unless someone listens
+		EventTopic<TradeOfferChangeEvent> offerChangeTopic = plugin.getEventBus().getOfferChangeTopic();
+		if (offerChangeTopic.hasSubscribers()) {
+			offerChangeTopic.publish(new TradeOfferChangeEvent(this, player, type));
+		}
+	}
+	
 	private void declineAll() {
 		initiator.setAccepted(false);
 		partner.setAccepted(false);
 	}
 	
 	private void contractTrade() {
-		Player initiatorPlayer = initiator.getPlayer();
-		Player partnerPlayer = partner.getPlayer();
-		
-		if (initiator.getMoneyOffer() > 0) {
-			econ.withdrawPlayer(initiatorPlayer, initiator.getMoneyOffer());
-			econ.depositPlayer(partnerPlayer, initiator.getMoneyOffer());
+		if (!hasOfferedExp(initiator) || !hasOfferedExp(partner)) {
+			//Experience has been spent since it was offered
+			declineAll();
+			return;
 		}
 		
-		if (partner.getMoneyOffer() > 0) {
-			econ.withdrawPlayer(partnerPlayer, partner.getMoneyOffer());
-			econ.depositPlayer(initiatorPlayer, partner.getMoneyOffer());
+		if (!compareAndSetState(TradeState.TRADING, TradeState.CONTRACTING)) {
+			//Someone else is already settling or stopping this trade
+			return;
 		}
 		
-		if (initiator.getExpOffer() > 0) {
-            SetExpFix.setTotalExperience(partnerPlayer, SetExpFix.getTotalExperience(partnerPlayer) + initiator.getExpOffer());
-            SetExpFix.setTotalExperience(initiatorPlayer, SetExpFix.getTotalExperience(initiatorPlayer) - initiator.getExpOffer());
+		final Player initiatorPlayer = initiator.getPlayer();
+		final Player partnerPlayer = partner.getPlayer();
+		final int initiatorMoney = initiator.getMoneyOffer();
+		final int partnerMoney = partner.getMoneyOffer();
+		
+		if (!plugin.usesVault() || (initiatorMoney <= 0 && partnerMoney <= 0)) {
+			finishContract(null);
+			return;
 		}
 		
-		if (partner.getExpOffer() > 0) {
-            SetExpFix.setTotalExperience(partnerPlayer, SetExpFix.getTotalExperience(partnerPlayer) - partner.getExpOffer());
-            SetExpFix.setTotalExperience(initiatorPlayer, SetExpFix.getTotalExperience(initiatorPlayer) + partner.getExpOffer());
+		final MoneySettlement settlement = new MoneySettlement(econ, plugin.getLogger());
+		
+		//The provider may block, so the money is settled on the economy workers
+		//and the contract is finished on the thread owning the initiator
+		plugin.getEconomyGateway().submit(initiatorPlayer, new EconomyGateway.Operation<Boolean>() {
+			
+			@Override
+			public Boolean execute() {
+				try {
+					return settlement.execute(initiatorPlayer, partnerPlayer, initiatorMoney, partnerMoney);
+				} catch (RuntimeException e) {
+					settlement.rollback();
+					throw e;
+				}
+			}
+			
+			@Override
+			public void abandon(Boolean settled) {
+				//The trade has been cancelled after a timeout, the money has to go back
+				if (settled) {
+					settlement.rollback();
+				}
+			}
+		}, new EconomyGateway.Callback<Boolean>() {
+			
+			@Override
+			public void onSuccess(Boolean settled) {
+				if (!settled) {
+					//Everything has been rolled back, give the items back to their owners
+					plugin.getFactory().stopTrade(DefaultTrade.this, StopCause.SETTLEMENT_FAILED, initiatorPlayer);
+					return;
+				}
+				
+				finishContract(settlement);
+			}
+			
+			@Override
+			public void onFailure(Throwable cause) {
+				plugin.getFactory().stopTrade(DefaultTrade.this, StopCause.SETTLEMENT_FAILED, initiatorPlayer);
+			}
+		});
+	}
+	
+	private void finishContract(MoneySettlement settlement) {
+		//Experience may have been spent while the money was settled
+		TradePlayer lackingExp = !hasOfferedExp(initiator) ? initiator : !hasOfferedExp(partner) ? partner : null;
+		if (lackingExp != null) {
+			if (settlement != null) {
+				settlement.rollback();
+			}
+			
+			plugin.getFactory().stopTrade(this, StopCause.SETTLEMENT_FAILED, lackingExp.getPlayer());
+			return;
 		}
 		
-		setState(TradeState.CONTRACTED);
+		if (!compareAndSetState(TradeState.CONTRACTING, TradeState.CONTRACTED)) {
+			//The trade has been stopped concurrently, undo the money transfer.
+			//This bypasses the gateway as a rollback must never be skipped
+			if (settlement != null) {
+				settlement.rollback();
+			}
+			
+			return;
+		}
 		
-		initiatorPlayer.closeInventory();
-		partnerPlayer.closeInventory();
+		//Both sides are completed separately as the participants
+		//may be owned by different region threads
+		completeFor(initiator, partner);
+		completeFor(partner, initiator);
 		
-		transferTradeItems(initiator, partner);
-		transferTradeItems(partner, initiator);
+		EventTopic<TradeContractEvent> contractTopic = plugin.getEventBus().getContractTopic();
+		if (contractTopic.hasSubscribers()) {
+			contractTopic.publish(new TradeContractEvent(this, settlement != null ? settlement.getId() : null));
+		}
+	}
+	
+	private void snapshotBalance(final TradePlayer player) {
+		if (plugin.isDisabling() || !player.requestBalance()) {
+			return;
+		}
 		
-		initiatorPlayer.updateInventory();
-		partnerPlayer.updateInventory();
-
-        Sound levelUpSound = getSoundEnumType(LEVEL_UP_SEARCH);
-        if (levelUpSound != null) {
-            initiatorPlayer.playSound(initiatorPlayer.getLocation(), levelUpSound, 1.0F, 1.0F);
-            partnerPlayer.playSound(partnerPlayer.getLocation(), levelUpSound, 1.0F, 1.0F);
-        }
+		plugin.getEconomyGateway().submit(player.getPlayer(), new EconomyGateway.Operation<Double>() {
+			
+			@Override
+			public Double execute() {
+				return econ.getBalance(player.getPlayer());
+			}
+			
+			@Override
+			public void abandon(Double balance) {
+				//A late balance is still better than none
+				if (!player.hasBalance()) {
+					player.setBalance(balance);
+				}
+				
+				player.balanceReceived();
+			}
+		}, new EconomyGateway.Callback<Double>() {
+			
+			@Override
+			public void onSuccess(Double balance) {
+				player.setBalance(balance);
+				player.balanceReceived();
+			}
+			
+			@Override
+			public void onFailure(Throwable cause) {
+				//The last snapshot is kept, the next money click requests a new one
+				player.balanceReceived();
+			}
+		});
+	}
+	
+	private boolean hasOfferedExp(TradePlayer player) {
+		if (player.getExpOffer() <= 0 || SetExpFix.getTotalExperience(player.getPlayer()) >= player.getExpOffer()) {
+			return true;
+		}
 		
-		initiatorPlayer.sendMessage(i18n.getVarString(Messages.General.TRADE_CONFIRMED)
-                .setVariable("player", partnerPlayer.getName())
-                .toString());
-		partnerPlayer.sendMessage(i18n.getVarString(Messages.General.TRADE_CONFIRMED)
-                .setVariable("player", initiator.getName())
-                .toString());
+		player.getPlayer().sendMessage(i18n.getString(Messages.General.NOT_ENOUGH_XP));
+		return false;
 	}
 	
-	private void transferTradeItems(TradePlayer from, TradePlayer to) {
-		Inventory inv = from.getInventory();
+	private void settleExp(Player player, int expDelta) {
+		//Apply the net difference of both offers with a single write
+		int before = SetExpFix.getTotalExperience(player);
+		long expected = (long) before + expDelta;
+		int after = (int) Math.max(0, Math.min(Integer.MAX_VALUE, expected));
 		
-		boolean hasUntransferredItems = false;
-		for (int y = 2; y < 6; y++) {
-			for (int x = 0; x < 4; x++) {
-				int slot = y * 9 + x;
+		SetExpFix.setTotalExperience(player, after);
+		
+		int actual = SetExpFix.getTotalExperience(player);
+		if (actual != expected) {
+			plugin.getLogger().warning("Experience settlement for " + player.getName() + " is off: expected "
+					+ expected + " but has " + actual + " (was " + before + ", delta " + expDelta + ")");
+		}
+	}
+	
+	private void completeFor(final TradePlayer player, final TradePlayer other) {
+		runFor(player, new Runnable() {
+			
+			@Override
+			public void run() {
+				Player bukkitPlayer = player.getPlayer();
 				
-				ItemStack current = inv.getItem(slot);
-				if (current == null) {
-					continue;
+				int expDelta = other.getExpOffer() - player.getExpOffer();
+				if (expDelta != 0) {
+					settleExp(bukkitPlayer, expDelta);
 				}
 				
-				Map<Integer, ItemStack> untransferred = to.getPlayer().getInventory().addItem(current);
-				if (!untransferred.isEmpty()) {
-					hasUntransferredItems = true;
-					for (ItemStack stack : untransferred.values()) {
-						to.getPlayer().getWorld().dropItem(to.getPlayer().getLocation(), stack);
-					}
+				bukkitPlayer.closeInventory();
+				transferTradeItems(other, player);
+				bukkitPlayer.updateInventory();
+				inventoryPool.release(player.getInventory(), player.getInventoryTitle());
+				
+				Sound levelUpSound = plugin.getPlatformAdapter().getLevelUpSound();
+				if (levelUpSound != null) {
+					bukkitPlayer.playSound(bukkitPlayer.getLocation(), levelUpSound, 1.0F, 1.0F);
+				}
+				
+				bukkitPlayer.sendMessage(i18n.getVarString(Messages.General.TRADE_CONFIRMED)
+						.setVariable("player", other.getName())
+						.toString());
+			}
+		}, new Runnable() {
+			
+			@Override
+			public void run() {
+				//The items of the partner belong to this player now
+				dropOffer(other.getOffer(), player.getPlayer());
+			}
+		});
+	}
+	
+	private void transferTradeItems(TradePlayer from, TradePlayer to) {
+		TradeOffer offer = from.getOffer();
+		
+		boolean hasUntransferredItems = false;
+		for (int index = 0; index < offer.getCapacity(); index++) {
+			ItemStack current = offer.get(index);
+			if (current == null) {
+				continue;
+			}
+			
+			offer.set(index, null);
+			
+			Map<Integer, ItemStack> untransferred = to.getPlayer().getInventory().addItem(current);
+			if (!untransferred.isEmpty()) {
+				hasUntransferredItems = true;
+				for (ItemStack stack : untransferred.values()) {
+					to.getPlayer().getWorld().dropItem(to.getPlayer().getLocation(), stack);
 				}
 			}
 		}
@@ -745,33 +912,209 @@ public class DefaultTrade implements Trade {
 		}
 	}
 	
-	private void reflectChanges(TradePlayer player) {
-		Inventory inv = player.getInventory();
-		Inventory otherInv = player == initiator ? partner.getInventory() : initiator.getInventory();
+	private void setOfferItem(TradePlayer owner, int index, ItemStack stack) {
+		//Only the amount of the stack at this index changed, so its fingerprint still holds
+		setOfferItem(owner, index, stack, stack == null ? 0 : owner.getOffer().getFingerprint(index));
+	}
+	
+	private void setOfferItem(TradePlayer owner, int index, ItemStack stack, int fingerprint) {
+		TradeOffer offer = owner.getOffer();
+		offer.set(index, stack, fingerprint);
+		
+		//Only viewers currently looking at the page of this item have to render it
+		int page = offer.getPage(index);
+		int offerIndex = index - page * offer.getPageSize();
+		TradePlayer other = owner == initiator ? partner : initiator;
+		
+		if (owner.getPage() == page) {
+			markSlotsDirty(owner, 1L << layout.getOfferSlot(offerIndex));
+		}
+		
+		if (other.getPage() == page) {
+			markSlotsDirty(other, 1L << layout.getPartnerOfferSlot(offerIndex));
+		}
+	}
+	
+	private void showPage(TradePlayer player, int page) {
+		player.setPage(page);
+		
+		//Switching pages only re-renders the offer area and the page buttons
+		markSlotsDirty(player, layout.getPageAreaMask());
+	}
+	
+	private void markSlotsDirty(TradePlayer player, long slots) {
+		//Both participants mark slots dirty, possibly from different region threads
+		AtomicLong dirtySlots = player == initiator ? initiatorDirtySlots : partnerDirtySlots;
+		
+		long current;
+		do {
+			current = dirtySlots.get();
+		} while (!dirtySlots.compareAndSet(current, current | slots));
+	}
+	
+	private void requestRender(TradePlayer clicker) {
+		if (!config.coalescesUpdates()) {
+			flush();
+			return;
+		}
+		
+		//Clicks only change the model, a single flush per tick renders all of them
+		if (flushScheduled.compareAndSet(false, true)) {
+			plugin.getTickDriver().defer(TickDriver.Phase.RENDER, clicker.getPlayer(), flushTask);
+		}
+	}
+	
+	private void flush() {
+		flushScheduled.set(false);
+		
+		if (getState() != TradeState.TRADING) {
+			//The trade has ended in the meantime
+			return;
+		}
+		
+		long initiatorSlots = initiatorDirtySlots.getAndSet(0);
+		long partnerSlots = partnerDirtySlots.getAndSet(0);
+		
+		//The flush runs on the thread of the clicker, each inventory is written by the thread owning its viewer
+		renderFor(initiator, initiatorSlots);
+		renderFor(partner, partnerSlots);
+	}
+	
+	private void renderFor(final TradePlayer viewer, final long dirtySlots) {
+		runFor(viewer, new Runnable() {
+			
+			@Override
+			public void run() {
+				if (getState() != TradeState.TRADING) {
+					//The inventory may already have been released to the pool
+					return;
+				}
+				
+				renderSlots(viewer, dirtySlots);
+				renderer.render(viewer);
+			}
+		});
+	}
+	
+	private void renderSlots(TradePlayer viewer, long dirtySlots) {
+		Inventory inv = viewer.getInventory();
+		TradePlayer other = viewer == initiator ? partner : initiator;
+		int page = viewer.getPage();
+		
+		//Only materialize the slots which have actually been touched
+		while (dirtySlots != 0) {
+			int slot = Long.numberOfTrailingZeros(dirtySlots);
+			dirtySlots &= dirtySlots - 1;
+			
+			switch (layout.getAction(slot)) {
+			case OFFER:
+				inv.setItem(slot, viewer.getOffer().get(viewer.getOffer().getIndex(page, layout.getOfferIndex(slot))));
+				break;
+			case PARTNER_OFFER:
+				inv.setItem(slot, other.getOffer().get(other.getOffer().getIndex(page, layout.getOfferIndex(slot))));
+				break;
+			case PREVIOUS_PAGE:
+			case NEXT_PAGE:
+				inv.setItem(slot, createPageButton(slot, page));
+				break;
+			default:
+				break;
+			}
+		}
+	}
+	
+	private ItemStack createPageButton(int slot, int page) {
+		ItemStack button = template.getItem(slot);
+		if (button == null || layout.getPageCount() <= 1) {
+			return button;
+		}
 		
-		for (int y = 2; y < 6; y++) {
-			for (int x = 0; x < 4; x++) {
-				int slot = y * 9 + x;
-				int reflectedSlot = y * 9 + (8 - x);
+		button = button.clone();
+		ItemMeta meta = button.getItemMeta();
+		meta.setLore(Lists.newArrayList(i18n.getVarString(Messages.Inventory.PAGE_LORE)
+				.setVariable("page", String.valueOf(page + 1))
+				.setVariable("pages", String.valueOf(layout.getPageCount()))
+				.toString()));
+		button.setItemMeta(meta);
+		return button;
+	}
+	
+	private int moveAllToTradeInventory(TradePlayer player, ItemStack similar) {
+		PlayerInventory playerInv = player.getPlayer().getInventory();
+		int moved = 0;
+		
+		for (int slot = 0; slot < PLAYER_STORAGE_SIZE; slot++) {
+			ItemStack current = playerInv.getItem(slot);
+			if (current == null || !current.isSimilar(similar)) {
+				continue;
+			}
+			
+			int amount = current.getAmount();
+			int untransferred = addToTradeInventory(player, current.clone());
+			moved += amount - untransferred;
+			
+			if (untransferred == 0) {
+				playerInv.setItem(slot, null);
+			} else {
+				current.setAmount(untransferred);
+				playerInv.setItem(slot, current);
 				
-				ItemStack current = inv.getItem(slot);
-				otherInv.setItem(reflectedSlot, current);
+				if (untransferred == amount) {
+					//No space left in the offer
+					break;
+				}
+			}
+		}
+		
+		return moved;
+	}
+	
+	private int moveAllToPlayerInventory(TradePlayer player, ItemStack similar) {
+		TradeOffer offer = player.getOffer();
+		PlayerInventory playerInv = player.getPlayer().getInventory();
+		int fingerprint = TradeOffer.fingerprint(similar);
+		int moved = 0;
+		
+		for (int index = 0; index < offer.getCapacity(); index++) {
+			ItemStack current = offer.get(index);
+			if (current == null || offer.getFingerprint(index) != fingerprint || !current.isSimilar(similar)) {
+				continue;
+			}
+			
+			int amount = current.getAmount();
+			Map<Integer, ItemStack> untransferred = playerInv.addItem(current.clone());
+			int left = untransferred.isEmpty() ? 0 : untransferred.get(0).getAmount();
+			moved += amount - left;
+			
+			current.setAmount(left);
+			setOfferItem(player, index, left == 0 ? null : current);
+			
+			if (left != 0) {
+				//The player inventory is full
+				break;
 			}
 		}
+		
+		return moved;
 	}
 	
 	private int addToTradeInventory(TradePlayer player, ItemStack stack) {
-		Inventory inv = player.getInventory();
+		TradeOffer offer = player.getOffer();
 		int maxStackSize = Math.max(stack.getAmount(), stack.getMaxStackSize());
-
-		for (int y = 2; y < 6; y++) {
-			for (int x = 0; x < 4; x++) {
-				int slot = y * 9 + x;
-				
-				ItemStack current = inv.getItem(slot);
+		int capacity = offer.getCapacity();
+		int start = offer.getIndex(player.getPage(), 0);
+		int fingerprint = TradeOffer.fingerprint(stack);
+
+		//Start at the page the player is looking at and wrap around
+		for (int pass = 0; pass < 2; pass++) {
+			int end = pass == 0 ? capacity : start;
+			int index = offer.nextMergeCandidate(fingerprint, pass == 0 ? start : 0);
+			
+			for (; index != TradeOffer.NO_INDEX && index < end; index = offer.nextMergeCandidate(fingerprint, index + 1)) {
+				ItemStack current = offer.get(index);
 				int amount;
 				if (current != null && !current.isSimilar(stack)) {
-					//Totally not the itemstack we're searching for
+					//Same fingerprint but totally not the itemstack we're searching for
 					continue;
 				} else if (current == null) {
 					//There is no itemstack in this slot
@@ -781,7 +1124,7 @@ public class DefaultTrade implements Trade {
 					//This itemstack is similar to our requested
 					//Only add up on this itemstack
 					amount = current.getAmount();
-
+					
 					if (amount >= stack.getMaxStackSize()) {
 						//We can't add anything on top of this itemstack
 						continue;
@@ -798,7 +1141,7 @@ public class DefaultTrade implements Trade {
 				stack.setAmount(stack.getAmount() - (newAmount - amount));
 				current.setAmount(newAmount);
 				
-				inv.setItem(slot, current);
+				setOfferItem(player, index, current, fingerprint);
 				
 				if (stack.getAmount() == 0) {
 					return 0;
@@ -809,136 +1152,6 @@ public class DefaultTrade implements Trade {
 		return stack.getAmount();
 	}
 	
-	private void updateInventoryStatus() {
-		ItemStack statusStack;
-		String loreLine;
-		boolean isConfirmed;
-		boolean usesVault = plugin.usesVault();
-
-		if (initiator.hasAccepted() || partner.hasAccepted()) {
-			statusStack = CONFIRMED_STATUS_MATERIAL_DATA.toItemStack(1);
-			loreLine = i18n.getString(Messages.Inventory.ONE_PLAYER_ACCEPTED);
-			isConfirmed = true;
-		} else {
-			statusStack = UNCONFIRMED_STATUS_MATERIAL_DATA.toItemStack(1);
-			loreLine = i18n.getString(Messages.Inventory.WAITING_FOR_OTHER_PLAYER_LORE);
-			isConfirmed = false;
-		}
-
-		ItemMeta meta = statusStack.getItemMeta();
-		meta.setDisplayName(i18n.getVarString(Messages.Inventory.TRADE_STATUS_TITLE)
-                .setVariable("color", String.valueOf(isConfirmed ? ChatColor.GREEN : ChatColor.RED))
-                .toString());
-		meta.setLore(Lists.newArrayList(ChatColor.WHITE + loreLine));
-		statusStack.setItemMeta(meta);
-
-        int initiatorDiff = getLevelDiff(initiator.getPlayer().getLevel(), SetExpFix.getTotalExperience(initiator.getPlayer()),
-                partner.getExpOffer() - initiator.getExpOffer());
-        int partnerDiff = getLevelDiff(partner.getPlayer().getLevel(), SetExpFix.getTotalExperience(partner.getPlayer()),
-                initiator.getExpOffer() - partner.getExpOffer());
-
-		ItemStack expInfoInitiator = config.getXpStatusBlockData().newItemStack();
-        ItemStack expInfoPartner = config.getXpStatusBlockData().newItemStack();
-
-		ItemMeta expInfoMetaInitiator = expInfoInitiator.getItemMeta();
-        ItemMeta expInfoMetaPartner = expInfoPartner.getItemMeta();
-
-        expInfoMetaInitiator.setDisplayName(i18n.getString(Messages.Inventory.EXP_INFO_TITLE));
-        expInfoMetaPartner.setDisplayName(i18n.getString(Messages.Inventory.EXP_INFO_TITLE));
-
-		List<String> expInfoLore = Lists.newArrayList();
-		expInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                .setVariable("player", initiator.getName())
-                .setVariable("offer", String.valueOf(initiator.getExpOffer()) + " XP")
-                .toString());
-		expInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                .setVariable("player", partner.getName())
-                .setVariable("offer", String.valueOf(partner.getExpOffer()) + " XP")
-                .toString());
-        expInfoLore.add("");
-
-        List<String> expInfoLoreInitiator = Lists.newArrayList(expInfoLore);
-        List<String> expInfoLorePartner = Lists.newArrayList(expInfoLore);
-
-        expInfoLoreInitiator.add(i18n.getVarString(Messages.Inventory.LEVEL_INFO)
-            .setVariable("level-diff", LEVEL_FORMAT.format(initiatorDiff))
-            .toString());
-        expInfoLorePartner.add(i18n.getVarString(Messages.Inventory.LEVEL_INFO)
-            .setVariable("level-diff", LEVEL_FORMAT.format(partnerDiff))
-            .toString());
-
-		expInfoMetaInitiator.setLore(expInfoLoreInitiator);
-        expInfoMetaPartner.setLore(expInfoLorePartner);
-
-		expInfoInitiator.setItemMeta(expInfoMetaInitiator);
-        expInfoPartner.setItemMeta(expInfoMetaPartner);
-
-		if (usesVault && config.usesMoneyTrading()) {
-			ItemStack moneyInfo = config.getMoneyStatusBlockData().newItemStack();
-			ItemMeta moneyInfoMeta = moneyInfo.getItemMeta();
-			moneyInfoMeta.setDisplayName(i18n.getString(Messages.Inventory.MONEY_INFO_TITLE));
-			List<String> moneyInfoLore = Lists.newArrayList();
-			moneyInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                    .setVariable("player", initiator.getName())
-                    .setVariable("offer", econ.format(initiator.getMoneyOffer()))
-                    .toString());
-			moneyInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
-                    .setVariable("player", partner.getName())
-                    .setVariable("offer", econ.format(partner.getMoneyOffer()))
-                    .toString());
-			moneyInfoMeta.setLore(moneyInfoLore);
-			moneyInfo.setItemMeta(moneyInfoMeta);
-
-			initiator.getInventory().setItem(MONEY_INFO_INDEX, moneyInfo);
-			partner.getInventory().setItem(MONEY_INFO_INDEX, moneyInfo);
-		}
-
-		initiator.getInventory().setItem(CONFIRMATION_INFO_INDEX, statusStack);
-		partner.getInventory().setItem(CONFIRMATION_INFO_INDEX, statusStack);
-
-		if (config.usesXpTrading()) {
-			initiator.getInventory().setItem(EXP_INFO_INDEX, expInfoInitiator);
-			partner.getInventory().setItem(EXP_INFO_INDEX, expInfoPartner);
-		}
-	}
-
-    private int getLevelDiff(int levelBase, int expBase, int expDiff) {
-        int totalExp = expBase + expDiff;
-        int level;
-
-        if (expDiff == 0) {
-            return 0;
-        }
-
-        //Some magic number stuff, based on solving the equations found at
-        //http://minecraft.gamepedia.com/Experience for the level
-        if (totalExp < 394) {
-            //Level 0 - 16
-            level = (int) (Math.sqrt(totalExp + 9) - 3);
-        } else if (totalExp >= 394 && totalExp < 1628) {
-            //Level 17 - 31
-            level = (int) (0.632456 * (Math.sqrt(totalExp - 195.975) + 12.8072));
-        } else {
-            //Level 32+
-            level = (int) (0.471405 * (Math.sqrt(totalExp - 752.986) + 38.3016));
-        }
-
-        return level - levelBase;
-    }
-
-    public static Sound getSoundEnumType(String... searchStrings) {
-        Sound[] sounds = Sound.values();
-        for (Sound sound : sounds) {
-            for (String search : searchStrings) {
-                if (sound.name().toUpperCase().contains(search)) {
-                    return sound;
-                }
-            }
-        }
-
-        return null;
-    }
-
 	private enum TradeAction {
 		
 		ADD_MONEY,
@@ -947,6 +1160,8 @@ public class DefaultTrade implements Trade {
 		DECLINE,
 		MOVE_ITEM_TO_PLAYER_INVENTORY,
 		MOVE_ITEM_TO_TRADE_INVENTORY,
+		PREVIOUS_PAGE,
+		NEXT_PAGE,
 		NOTHING
 		
 	}
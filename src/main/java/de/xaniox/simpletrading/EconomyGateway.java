@@ -0,0 +1,301 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Sets;
+import de.xaniox.simpletrading.scheduler.TaskScheduler;
+import de.xaniox.simpletrading.scheduler.TickStats;
+import org.bukkit.entity.Entity;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+public class EconomyGateway {
+
+    private static final int LATENCY_WINDOW = 100;
+    private static final long MILLIS_PER_TICK = 50;
+    private static final long SHUTDOWN_WAIT_SECONDS = 5;
+
+    private final SimpleTrading plugin;
+    private final TaskScheduler scheduler;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final int breakerThreshold;
+    private final long breakerCooldownMillis;
+
+    private final TickStats latency;
+    private final AtomicLong calls;
+    private final AtomicLong failures;
+    private final AtomicLong timeouts;
+    private final AtomicLong rejections;
+    private final AtomicInteger consecutiveFailures;
+    private final AtomicBoolean trialRunning;
+    private volatile long openUntil;
+    //Abandon tasks of results which have been scheduled but not handled yet
+    private final Set<Runnable> pendingResults;
+
+    public EconomyGateway(SimpleTrading plugin, TaskScheduler scheduler, int threads, int queueSize, long timeoutMillis,
+                          int breakerThreshold, long breakerCooldownMillis) {
+        this.plugin = plugin;
+        this.scheduler = scheduler;
+        this.timeoutMillis = timeoutMillis;
+        this.breakerThreshold = breakerThreshold;
+        this.breakerCooldownMillis = breakerCooldownMillis;
+
+        final AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SimpleTrading Economy #" + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.latency = new TickStats(LATENCY_WINDOW);
+        this.calls = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.timeouts = new AtomicLong();
+        this.rejections = new AtomicLong();
+        this.consecutiveFailures = new AtomicInteger();
+        this.trialRunning = new AtomicBoolean();
+        this.pendingResults = Sets.newConcurrentHashSet();
+    }
+
+    public <T> void submit(final Entity owner, final Operation<T> operation, final Callback<T> callback) {
+        final boolean trial;
+
+        if (isOpen()) {
+            //Let a single call through after the cooldown to probe the provider
+            if (System.currentTimeMillis() < openUntil || !trialRunning.compareAndSet(false, true)) {
+                rejections.incrementAndGet();
+                callback.onFailure(new IllegalStateException("Economy provider is unavailable"));
+                return;
+            }
+
+            trial = true;
+        } else {
+            trial = false;
+        }
+
+        final AtomicBoolean completed = new AtomicBoolean();
+
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    T result;
+
+                    try {
+                        result = operation.execute();
+                    } catch (Exception e) {
+                        plugin.getLogger().log(Level.WARNING, "Economy call failed", e);
+
+                        if (completed.compareAndSet(false, true)) {
+                            recordFailure(trial);
+                            deliverFailure(owner, callback, e);
+                        }
+
+                        return;
+                    }
+
+                    long nanos = System.nanoTime() - start;
+                    latency.record(nanos, executor.getQueue().size());
+
+                    if (!completed.compareAndSet(false, true)) {
+                        //The caller has already given up on this call
+                        operation.abandon(result);
+                        return;
+                    }
+
+                    if (TimeUnit.NANOSECONDS.toMillis(nanos) > timeoutMillis) {
+                        recordFailure(trial);
+                    } else {
+                        recordSuccess(trial);
+                    }
+
+                    deliverSuccess(owner, operation, callback, result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.incrementAndGet();
+            if (trial) {
+                trialRunning.set(false);
+            }
+
+            callback.onFailure(e);
+            return;
+        }
+
+        calls.incrementAndGet();
+
+        scheduler.runLater(owner, new Runnable() {
+
+            @Override
+            public void run() {
+                if (completed.compareAndSet(false, true)) {
+                    timeouts.incrementAndGet();
+                    recordFailure(trial);
+                    callback.onFailure(new TimeoutException("Economy call timed out after " + timeoutMillis + " ms"));
+                }
+            }
+        }, Math.max(1L, timeoutMillis / MILLIS_PER_TICK));
+    }
+
+    private <T> void deliverSuccess(Entity owner, final Operation<T> operation, final Callback<T> callback, final T result) {
+        if (!plugin.isEnabled() || plugin.isDisabling()) {
+            //Nobody is going to handle the result anymore, a completed settlement has to be undone
+            operation.abandon(result);
+            return;
+        }
+
+        final AtomicBoolean handled = new AtomicBoolean();
+        final Runnable abandonTask = new Runnable() {
+
+            @Override
+            public void run() {
+                pendingResults.remove(this);
+                if (handled.compareAndSet(false, true)) {
+                    operation.abandon(result);
+                }
+            }
+        };
+
+        pendingResults.add(abandonTask);
+
+        //Results are always handled on the thread owning the entity. If the entity
+        //is gone before that, nobody handles the result and it is abandoned
+        scheduler.execute(owner, new Runnable() {
+
+            @Override
+            public void run() {
+                pendingResults.remove(abandonTask);
+                if (handled.compareAndSet(false, true)) {
+                    callback.onSuccess(result);
+                }
+            }
+        }, abandonTask);
+    }
+
+    private <T> void deliverFailure(Entity owner, final Callback<T> callback, final Exception cause) {
+        if (!plugin.isEnabled() || plugin.isDisabling()) {
+            return;
+        }
+
+        scheduler.execute(owner, new Runnable() {
+
+            @Override
+            public void run() {
+                callback.onFailure(cause);
+            }
+        });
+    }
+
+    private void recordSuccess(boolean trial) {
+        consecutiveFailures.set(0);
+        if (trial) {
+            openUntil = 0;
+            trialRunning.set(false);
+            plugin.getLogger().info("Economy provider responds again, closing the circuit breaker");
+        }
+    }
+
+    private void recordFailure(boolean trial) {
+        failures.incrementAndGet();
+
+        if (trial || consecutiveFailures.incrementAndGet() == breakerThreshold) {
+            //Stop calling the provider for a while
+            openUntil = System.currentTimeMillis() + breakerCooldownMillis;
+            trialRunning.set(false);
+            plugin.getLogger().warning("Economy provider is slow or failing, pausing economy calls for "
+                    + breakerCooldownMillis / 1000 + " seconds");
+        }
+    }
+
+    public boolean isOpen() {
+        return openUntil != 0;
+    }
+
+    public TickStats getLatency() {
+        return latency;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+
+        try {
+            //Running settlements see the plugin disabling and abandon their results, which rolls them back
+            if (!executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Economy calls did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        //Results scheduled before the shutdown are never handled, the scheduler drops their tasks
+        for (Runnable abandonTask : pendingResults) {
+            abandonTask.run();
+        }
+    }
+
+    public static abstract class Operation<T> {
+
+        public abstract T execute() throws Exception;
+
+        public void abandon(T result) {}
+
+    }
+
+    public interface Callback<T> {
+
+        public void onSuccess(T result);
+
+        public void onFailure(Throwable cause);
+
+    }
+
+}
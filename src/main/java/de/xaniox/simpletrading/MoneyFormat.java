@@ -0,0 +1,61 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import net.milkbowl.vault.economy.Economy;
+
+import java.text.DecimalFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class MoneyFormat {
+
+    private final DecimalFormat format;
+    private final String currencySingular;
+    private final String currencyPlural;
+
+    public MoneyFormat(Economy econ, Logger logger) {
+        String singular = null;
+        String plural = null;
+
+        //The currency names are fetched once, Economy#format is a provider call on every render
+        try {
+            singular = econ.currencyNameSingular();
+            plural = econ.currencyNamePlural();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Could not fetch the currency names of the economy provider", e);
+        }
+
+        this.format = new DecimalFormat("#,##0");
+        this.currencySingular = singular != null ? singular : "";
+        this.currencyPlural = plural != null ? plural : "";
+    }
+
+    public String format(int amount) {
+        String currency = amount == 1 ? currencySingular : currencyPlural;
+        String formatted;
+
+        //DecimalFormat is not thread safe and trades are rendered on several region threads
+        synchronized (format) {
+            formatted = format.format(amount);
+        }
+
+        return currency.isEmpty() ? formatted : formatted + " " + currency;
+    }
+
+}
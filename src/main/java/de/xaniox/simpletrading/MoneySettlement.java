@@ -0,0 +1,138 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Lists;
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.entity.Player;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+public class MoneySettlement {
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private final String id;
+    private final Economy econ;
+    private final Logger logger;
+    private final List<Step> completed;
+
+    public MoneySettlement(Economy econ, Logger logger) {
+        this.id = Long.toString(System.currentTimeMillis(), 36) + "-" + COUNTER.incrementAndGet();
+        this.econ = econ;
+        this.logger = logger;
+        this.completed = Lists.newArrayListWithCapacity(4);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean execute(Player initiator, Player partner, int initiatorOffer, int partnerOffer) {
+        //Check both balances before anything is moved
+        if (!hasBalance(initiator, initiatorOffer) || !hasBalance(partner, partnerOffer)) {
+            return false;
+        }
+
+        if (!transfer(initiator, partner, initiatorOffer) || !transfer(partner, initiator, partnerOffer)) {
+            return false;
+        }
+
+        if (!completed.isEmpty()) {
+            logger.info("Settlement " + id + ": " + initiator.getName() + " paid " + initiatorOffer + " to "
+                    + partner.getName() + ", " + partner.getName() + " paid " + partnerOffer + " to " + initiator.getName());
+        }
+
+        return true;
+    }
+
+    private boolean hasBalance(Player player, int amount) {
+        if (amount <= 0 || econ.has(player, amount)) {
+            return true;
+        }
+
+        logger.warning("Settlement " + id + ": " + player.getName() + " cannot afford " + amount + " anymore");
+        return false;
+    }
+
+    private boolean transfer(Player from, Player to, int amount) {
+        if (amount <= 0) {
+            return true;
+        }
+
+        return apply(new Step(from, amount, true)) && apply(new Step(to, amount, false));
+    }
+
+    private boolean apply(Step step) {
+        EconomyResponse response = step.withdraw ? econ.withdrawPlayer(step.player, step.amount)
+                : econ.depositPlayer(step.player, step.amount);
+
+        if (response == null || !response.transactionSuccess()) {
+            logger.warning("Settlement " + id + ": " + step + " failed"
+                    + (response != null && response.errorMessage != null ? ": " + response.errorMessage : "")
+                    + ", rolling back");
+            rollback();
+            return false;
+        }
+
+        completed.add(step);
+        return true;
+    }
+
+    public void rollback() {
+        //Undo every completed step in reverse order
+        for (int i = completed.size() - 1; i >= 0; i--) {
+            Step step = completed.get(i);
+            EconomyResponse response = step.withdraw ? econ.depositPlayer(step.player, step.amount)
+                    : econ.withdrawPlayer(step.player, step.amount);
+
+            if (response == null || !response.transactionSuccess()) {
+                logger.severe("Settlement " + id + ": could not roll back " + step + ", manual correction required");
+            }
+        }
+
+        if (!completed.isEmpty()) {
+            logger.info("Settlement " + id + ": rolled back " + completed.size() + " transaction(s)");
+        }
+
+        completed.clear();
+    }
+
+    private static class Step {
+
+        private final Player player;
+        private final int amount;
+        private final boolean withdraw;
+
+        public Step(Player player, int amount, boolean withdraw) {
+            this.player = player;
+            this.amount = amount;
+            this.withdraw = withdraw;
+        }
+
+        @Override
+        public String toString() {
+            return (withdraw ? "withdrawing " : "depositing ") + amount + (withdraw ? " from " : " to ") + player.getName();
+        }
+
+    }
+
+}
@@ -24,8 +24,10 @@ public enum Permissions {
     TRADE_INITIATE("trade.initiate"),
     TRADE_INITIATE_SHIFT("trade.initiate.shift"),
     TRADE_DENY("trade.deny"),
+    TRADE_NEARBY("trade.nearby"),
 
 	RELOAD("reload"), 
+	TIMINGS("timings"),
 	SIGN("sign");
 	
 	private static final String PREFIX = "simpletrading.";
@@ -0,0 +1,98 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import org.bukkit.Material;
+import org.bukkit.Sound;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+public class PlatformAdapter {
+
+    //Candidates in order of preference, newest server versions first
+    private static final String[] CLICK_SOUNDS = {"UI_BUTTON_CLICK", "CLICK"};
+    private static final String[] LEVEL_UP_SOUNDS = {"ENTITY_PLAYER_LEVELUP", "LEVEL_UP"};
+
+    private static final String FLATTENED_CONFIRMED_STATUS = "LIME_STAINED_GLASS";
+    private static final String FLATTENED_UNCONFIRMED_STATUS = "RED_STAINED_GLASS";
+    private static final short LEGACY_CONFIRMED_STATUS_DATA = 5;
+    private static final short LEGACY_UNCONFIRMED_STATUS_DATA = 14;
+
+    private final boolean flattened;
+    private final Sound clickSound;
+    private final Sound levelUpSound;
+    private final ItemStack confirmedStatusItem;
+    private final ItemStack unconfirmedStatusItem;
+
+    public PlatformAdapter(Logger logger) {
+        //Servers with flattened materials know colored glass by its own name
+        this.flattened = Material.getMaterial(FLATTENED_CONFIRMED_STATUS) != null;
+
+        this.clickSound = resolveSound(logger, CLICK_SOUNDS);
+        this.levelUpSound = resolveSound(logger, LEVEL_UP_SOUNDS);
+
+        if (flattened) {
+            this.confirmedStatusItem = new ItemStack(Material.getMaterial(FLATTENED_CONFIRMED_STATUS), 1);
+            this.unconfirmedStatusItem = new ItemStack(Material.getMaterial(FLATTENED_UNCONFIRMED_STATUS), 1);
+        } else {
+            this.confirmedStatusItem = new ItemStack(Material.STAINED_GLASS, 1, LEGACY_CONFIRMED_STATUS_DATA);
+            this.unconfirmedStatusItem = new ItemStack(Material.STAINED_GLASS, 1, LEGACY_UNCONFIRMED_STATUS_DATA);
+        }
+    }
+
+    private static Sound resolveSound(Logger logger, String[] candidates) {
+        for (String candidate : candidates) {
+            try {
+                return Sound.valueOf(candidate);
+            } catch (IllegalArgumentException e) {
+                //Not available on this server version, try the next one
+            }
+        }
+
+        //Fall back to a partial match, e.g. for renamed constants
+        for (Sound sound : Sound.values()) {
+            for (String candidate : candidates) {
+                if (sound.name().contains(candidate)) {
+                    return sound;
+                }
+            }
+        }
+
+        logger.warning("Could not find any of the sounds " + Arrays.toString(candidates) + ", sound will be disabled");
+        return null;
+    }
+
+    public boolean isFlattened() {
+        return flattened;
+    }
+
+    public Sound getClickSound() {
+        return clickSound;
+    }
+
+    public Sound getLevelUpSound() {
+        return levelUpSound;
+    }
+
+    public ItemStack createStatusItem(boolean confirmed) {
+        return (confirmed ? confirmedStatusItem : unconfirmedStatusItem).clone();
+    }
+
+}
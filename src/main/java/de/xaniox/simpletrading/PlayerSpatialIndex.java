@@ -0,0 +1,354 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import de.xaniox.simpletrading.config.TradeConfiguration;
+import de.xaniox.simpletrading.config.WorldControlManager;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.*;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+public class PlayerSpatialIndex implements Listener {
+
+    private static final int CHUNK_SHIFT = 4;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    //Scratch locations for Player#getLocation(Location), range checks run on several region threads
+    private static final ThreadLocal<Location[]> SCRATCH = new ThreadLocal<Location[]>() {
+
+        @Override
+        protected Location[] initialValue() {
+            return new Location[] { new Location(null, 0, 0, 0), new Location(null, 0, 0, 0) };
+        }
+    };
+
+    private final WorldControlManager worldControlManager;
+    //Each world grid is locked on its own, the index only changes when a player crosses a chunk border
+    private final ConcurrentMap<UUID, WorldGrid> grids;
+    private final ConcurrentMap<UUID, Entry> entries;
+    private volatile boolean checkDistance;
+    private volatile int maxDistance;
+    private volatile double maxDistanceSquared;
+
+    public PlayerSpatialIndex(TradeConfiguration config, WorldControlManager worldControlManager) {
+        this.worldControlManager = worldControlManager;
+        this.grids = Maps.newConcurrentMap();
+        this.entries = Maps.newConcurrentMap();
+
+        updateValues(config);
+    }
+
+    public void updateValues(TradeConfiguration config) {
+        maxDistance = config.getMaximumTradeDistance();
+        checkDistance = maxDistance != TradeConfiguration.NO_MAX_DISTANCE;
+        maxDistanceSquared = (double) maxDistance * maxDistance;
+    }
+
+    public void rebuild() {
+        for (Entry entry : entries.values()) {
+            remove(entry.player);
+        }
+
+        Location[] scratch = SCRATCH.get();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            update(player, player.getLocation(scratch[0]));
+        }
+    }
+
+    public boolean isInRange(Player first, Player second) {
+        if (!checkDistance) {
+            return true;
+        }
+
+        Location[] scratch = SCRATCH.get();
+        return isInRange(first, second.getLocation(scratch[1]));
+    }
+
+    public boolean isInRange(Player player, Location location) {
+        if (!checkDistance) {
+            return true;
+        }
+
+        Location playerLocation = player.getLocation(SCRATCH.get()[0]);
+        World world = playerLocation.getWorld();
+
+        if (world == null || world != location.getWorld() || !worldControlManager.isAllowed(world)) {
+            return false;
+        }
+
+        return distanceSquared(playerLocation, location.getX(), location.getY(), location.getZ()) <= maxDistanceSquared;
+    }
+
+    public List<Player> getPlayersInRange(Player center) {
+        List<Player> result = Lists.newArrayList();
+        Entry centerEntry = entries.get(center.getUniqueId());
+        WorldGrid grid = centerEntry != null ? centerEntry.grid : null;
+        if (grid == null) {
+            return result;
+        }
+
+        Location[] scratch = SCRATCH.get();
+        Location centerLocation = center.getLocation(scratch[0]);
+        double x = centerLocation.getX();
+        double y = centerLocation.getY();
+        double z = centerLocation.getZ();
+
+        //Only the candidates are collected under the lock, the exact distances are checked afterwards
+        List<Player> candidates = Lists.newArrayList();
+        synchronized (grid) {
+            if (!checkDistance) {
+                for (List<Entry> chunk : grid.chunks.values()) {
+                    addAll(chunk, candidates);
+                }
+            } else {
+                int chunkRadius = (maxDistance + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+                int side = 2 * chunkRadius + 1;
+
+                if ((long) side * side > grid.chunks.size()) {
+                    //Fewer occupied chunks than chunks in range, just walk all of them
+                    for (List<Entry> chunk : grid.chunks.values()) {
+                        addAll(chunk, candidates);
+                    }
+                } else {
+                    int centerX = chunkCoordinate(x);
+                    int centerZ = chunkCoordinate(z);
+
+                    for (int cx = centerX - chunkRadius; cx <= centerX + chunkRadius; cx++) {
+                        for (int cz = centerZ - chunkRadius; cz <= centerZ + chunkRadius; cz++) {
+                            List<Entry> chunk = grid.chunks.get(chunkKey(cx, cz));
+                            if (chunk != null) {
+                                addAll(chunk, candidates);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        final Map<Player, Double> distances = Maps.newHashMap();
+        World world = centerLocation.getWorld();
+
+        for (Player candidate : candidates) {
+            if (candidate == center) {
+                continue;
+            }
+
+            Location location = candidate.getLocation(scratch[1]);
+            if (location.getWorld() != world) {
+                continue;
+            }
+
+            double distanceSquared = distanceSquared(location, x, y, z);
+            if (!checkDistance || distanceSquared <= maxDistanceSquared) {
+                result.add(candidate);
+                distances.put(candidate, distanceSquared);
+            }
+        }
+
+        Collections.sort(result, new Comparator<Player>() {
+
+            @Override
+            public int compare(Player o1, Player o2) {
+                return Double.compare(distances.get(o1), distances.get(o2));
+            }
+        });
+
+        return result;
+    }
+
+    private static void addAll(List<Entry> chunk, List<Player> candidates) {
+        for (Entry entry : chunk) {
+            candidates.add(entry.player);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        update(player, player.getLocation(SCRATCH.get()[0]));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        remove(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+
+        //Most moves stay within a chunk and never touch the index
+        if (from.getBlockX() >> CHUNK_SHIFT == to.getBlockX() >> CHUNK_SHIFT
+                && from.getBlockZ() >> CHUNK_SHIFT == to.getBlockZ() >> CHUNK_SHIFT
+                && from.getWorld() == to.getWorld()) {
+            return;
+        }
+
+        update(event.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        update(event.getPlayer(), event.getTo());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        Player player = event.getPlayer();
+        update(player, player.getLocation(SCRATCH.get()[0]));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        update(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    private void update(Player player, Location location) {
+        World world = location.getWorld();
+        UUID playerId = player.getUniqueId();
+
+        if (world == null || !worldControlManager.isAllowed(world)) {
+            //Players in worlds where trading is disallowed are not eligible
+            remove(player);
+            return;
+        }
+
+        long key = chunkKey(chunkCoordinate(location.getX()), chunkCoordinate(location.getZ()));
+        WorldGrid grid = grids.get(world.getUID());
+        if (grid == null) {
+            WorldGrid created = new WorldGrid();
+            grid = grids.putIfAbsent(world.getUID(), created);
+            if (grid == null) {
+                grid = created;
+            }
+        }
+
+        Entry entry = entries.get(playerId);
+        if (entry == null) {
+            Entry created = new Entry(player);
+            entry = entries.putIfAbsent(playerId, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+
+        synchronized (entry) {
+            if (entry.grid == grid && entry.chunkKey == key) {
+                return;
+            }
+
+            if (entry.grid != null) {
+                entry.grid.remove(entry);
+            }
+
+            entry.chunkKey = key;
+            grid.add(entry);
+        }
+    }
+
+    private void remove(Player player) {
+        Entry entry = entries.remove(player.getUniqueId());
+        if (entry == null) {
+            return;
+        }
+
+        synchronized (entry) {
+            if (entry.grid != null) {
+                entry.grid.remove(entry);
+            }
+        }
+    }
+
+    private static double distanceSquared(Location location, double x, double y, double z) {
+        double dx = location.getX() - x;
+        double dy = location.getY() - y;
+        double dz = location.getZ() - z;
+
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static int chunkCoordinate(double blockCoordinate) {
+        return (int) Math.floor(blockCoordinate) >> CHUNK_SHIFT;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static class WorldGrid {
+
+        private final Map<Long, List<Entry>> chunks;
+
+        public WorldGrid() {
+            this.chunks = Maps.newHashMap();
+        }
+
+        public synchronized void add(Entry entry) {
+            List<Entry> chunk = chunks.get(entry.chunkKey);
+            if (chunk == null) {
+                chunk = Lists.newArrayListWithCapacity(4);
+                chunks.put(entry.chunkKey, chunk);
+            }
+
+            chunk.add(entry);
+            entry.grid = this;
+        }
+
+        public synchronized void remove(Entry entry) {
+            List<Entry> chunk = chunks.get(entry.chunkKey);
+            entry.grid = null;
+            if (chunk == null) {
+                return;
+            }
+
+            chunk.remove(entry);
+            if (chunk.isEmpty()) {
+                chunks.remove(entry.chunkKey);
+            }
+        }
+
+    }
+
+    private static class Entry {
+
+        private final Player player;
+        private volatile WorldGrid grid;
+        private long chunkKey;
+
+        public Entry(Player player) {
+            this.player = player;
+        }
+
+    }
+
+}
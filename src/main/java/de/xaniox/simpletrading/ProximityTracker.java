@@ -0,0 +1,168 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Maps;
+import de.xaniox.simpletrading.Trade.StopCause;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Map;
+import java.util.UUID;
+
+public class ProximityTracker implements Listener {
+
+    private final Plugin plugin;
+    private final TradeFactory factory;
+    private final PlayerSpatialIndex spatialIndex;
+    private final Map<UUID, Trade> watched;
+    private boolean registered;
+
+    public ProximityTracker(Plugin plugin, TradeFactory factory, PlayerSpatialIndex spatialIndex) {
+        this.plugin = plugin;
+        this.factory = factory;
+        this.spatialIndex = spatialIndex;
+        this.watched = Maps.newConcurrentMap();
+    }
+
+    public void watch(Trade trade) {
+        watched.put(trade.getInitiator().getPlayer().getUniqueId(), trade);
+        watched.put(trade.getPartner().getPlayer().getUniqueId(), trade);
+
+        updateRegistration();
+    }
+
+    public void unwatch(Trade trade) {
+        UUID initiatorId = trade.getInitiator().getPlayer().getUniqueId();
+        UUID partnerId = trade.getPartner().getPlayer().getUniqueId();
+
+        if (watched.get(initiatorId) == trade) {
+            watched.remove(initiatorId);
+        }
+
+        if (watched.get(partnerId) == trade) {
+            watched.remove(partnerId);
+        }
+
+        updateRegistration();
+    }
+
+    private synchronized void updateRegistration() {
+        //Only listen to movement while there is at least one trade to watch
+        if (!watched.isEmpty() && !registered && plugin.isEnabled()) {
+            plugin.getServer().getPluginManager().registerEvents(this, plugin);
+            registered = true;
+        } else if (watched.isEmpty() && registered) {
+            HandlerList.unregisterAll(this);
+            registered = false;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+
+        if (from.getBlockX() == to.getBlockX() && from.getBlockZ() == to.getBlockZ()
+                && from.getBlockY() == to.getBlockY()) {
+            //Player did only look around
+            return;
+        }
+
+        Player player = event.getPlayer();
+        Trade trade = watched.get(player.getUniqueId());
+        if (trade == null) {
+            return;
+        }
+
+        checkProximity(trade, player, to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onVehicleMove(VehicleMoveEvent event) {
+        //Riding players do not fire move events of their own
+        Entity passenger = event.getVehicle().getPassenger();
+        if (!(passenger instanceof Player)) {
+            return;
+        }
+
+        Location from = event.getFrom();
+        Location to = event.getTo();
+
+        if (from.getBlockX() == to.getBlockX() && from.getBlockZ() == to.getBlockZ()
+                && from.getBlockY() == to.getBlockY()) {
+            return;
+        }
+
+        Player player = (Player) passenger;
+        Trade trade = watched.get(player.getUniqueId());
+        if (trade == null) {
+            return;
+        }
+
+        checkProximity(trade, player, to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        Player player = event.getPlayer();
+        Trade trade = watched.get(player.getUniqueId());
+        if (trade == null) {
+            return;
+        }
+
+        if (event.getFrom().getWorld() != event.getTo().getWorld()) {
+            factory.stopTrade(trade, StopCause.LEFT_WORLD, player);
+            return;
+        }
+
+        checkProximity(trade, player, event.getTo());
+    }
+
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        Player player = event.getPlayer();
+        Trade trade = watched.get(player.getUniqueId());
+        if (trade == null) {
+            return;
+        }
+
+        factory.stopTrade(trade, StopCause.LEFT_WORLD, player);
+    }
+
+    private void checkProximity(Trade trade, Player player, Location to) {
+        Player partner = trade.getInitiator().getPlayer() == player ? trade.getPartner().getPlayer()
+                : trade.getInitiator().getPlayer();
+
+        //Compare against the live position of the partner
+        if (!spatialIndex.isInRange(partner, to)) {
+            factory.stopTrade(trade, StopCause.MOVE, player);
+        }
+    }
+
+}
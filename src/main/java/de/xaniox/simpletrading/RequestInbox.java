@@ -0,0 +1,85 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class RequestInbox {
+
+    //Insertion ordered, so the oldest request always comes first
+    private final Map<UUID, TradeRequest> requests;
+
+    public RequestInbox() {
+        this.requests = Maps.newLinkedHashMap();
+    }
+
+    public boolean offer(TradeRequest request, int capacity) {
+        UUID initiatorId = request.getInitiator().getUniqueId();
+        if (requests.containsKey(initiatorId)) {
+            return false;
+        }
+
+        if (capacity >= 0 && requests.size() >= capacity) {
+            return false;
+        }
+
+        requests.put(initiatorId, request);
+        return true;
+    }
+
+    public boolean remove(TradeRequest request) {
+        UUID initiatorId = request.getInitiator().getUniqueId();
+        if (requests.get(initiatorId) != request) {
+            return false;
+        }
+
+        requests.remove(initiatorId);
+        return true;
+    }
+
+    public TradeRequest get(UUID initiatorId) {
+        return requests.get(initiatorId);
+    }
+
+    public TradeRequest getLatest() {
+        TradeRequest latest = null;
+        for (TradeRequest request : requests.values()) {
+            latest = request;
+        }
+
+        return latest;
+    }
+
+    public List<TradeRequest> getRequests() {
+        return Lists.newArrayList(requests.values());
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    public boolean isEmpty() {
+        return requests.isEmpty();
+    }
+
+}
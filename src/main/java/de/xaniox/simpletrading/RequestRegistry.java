@@ -0,0 +1,130 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class RequestRegistry {
+
+    private final Map<UUID, RequestInbox> inboxes;
+    private final SetMultimap<UUID, TradeRequest> outgoing;
+
+    public RequestRegistry() {
+        this.inboxes = Maps.newHashMap();
+        this.outgoing = HashMultimap.create();
+    }
+
+    public synchronized boolean add(TradeRequest request, int capacity) {
+        UUID partnerId = request.getPartner().getUniqueId();
+        RequestInbox inbox = inboxes.get(partnerId);
+        if (inbox == null) {
+            inbox = new RequestInbox();
+            inboxes.put(partnerId, inbox);
+        }
+
+        if (!inbox.offer(request, capacity)) {
+            if (inbox.isEmpty()) {
+                inboxes.remove(partnerId);
+            }
+
+            return false;
+        }
+
+        outgoing.put(request.getInitiator().getUniqueId(), request);
+        return true;
+    }
+
+    public synchronized boolean remove(TradeRequest request) {
+        // Only one caller may win the removal, which decides if the
+        // request is accepted, declined or expired
+        UUID partnerId = request.getPartner().getUniqueId();
+        RequestInbox inbox = inboxes.get(partnerId);
+        if (inbox == null || !inbox.remove(request)) {
+            return false;
+        }
+
+        if (inbox.isEmpty()) {
+            inboxes.remove(partnerId);
+        }
+
+        outgoing.remove(request.getInitiator().getUniqueId(), request);
+        return true;
+    }
+
+    public synchronized List<TradeRequest> removeAll(Player player) {
+        UUID playerId = player.getUniqueId();
+        List<TradeRequest> removed = Lists.newArrayList();
+
+        RequestInbox inbox = inboxes.remove(playerId);
+        if (inbox != null) {
+            for (TradeRequest request : inbox.getRequests()) {
+                outgoing.remove(request.getInitiator().getUniqueId(), request);
+                removed.add(request);
+            }
+        }
+
+        for (TradeRequest request : outgoing.removeAll(playerId)) {
+            UUID partnerId = request.getPartner().getUniqueId();
+            RequestInbox partnerInbox = inboxes.get(partnerId);
+
+            if (partnerInbox != null && partnerInbox.remove(request) && partnerInbox.isEmpty()) {
+                inboxes.remove(partnerId);
+            }
+
+            removed.add(request);
+        }
+
+        return removed;
+    }
+
+    public synchronized TradeRequest get(Player partner, Player initiator) {
+        RequestInbox inbox = inboxes.get(partner.getUniqueId());
+        return inbox != null ? inbox.get(initiator.getUniqueId()) : null;
+    }
+
+    public synchronized TradeRequest getLatest(Player partner) {
+        RequestInbox inbox = inboxes.get(partner.getUniqueId());
+        return inbox != null ? inbox.getLatest() : null;
+    }
+
+    public synchronized List<TradeRequest> getRequests(Player partner) {
+        RequestInbox inbox = inboxes.get(partner.getUniqueId());
+        if (inbox == null) {
+            return Collections.emptyList();
+        }
+
+        return inbox.getRequests();
+    }
+
+    public synchronized List<TradeRequest> clear() {
+        List<TradeRequest> removed = Lists.newArrayList(outgoing.values());
+        inboxes.clear();
+        outgoing.clear();
+        return removed;
+    }
+
+}
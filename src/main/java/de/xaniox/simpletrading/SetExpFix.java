@@ -19,36 +19,47 @@ package de.xaniox.simpletrading;
 
 import org.bukkit.entity.Player;
 
+import java.util.Arrays;
+
 //Class stolen from Essentials. All credits go here:
 //https://hub.spigotmc.org/stash/projects/PLUGIN/repos/essentials/browse/Essentials/src/com/earth2me/essentials/craftbukkit/SetExpFix.java
 public class SetExpFix {
 
+    //Total experience needed to reach a level, up to the highest level that still fits into an int
+    private static final int[] EXP_TO_LEVEL = createExpTable();
+    private static final int MAX_LEVEL = EXP_TO_LEVEL.length - 1;
+
+    private static int[] createExpTable() {
+        int[] table = new int[32];
+        long exp = 0;
+        int level = 0;
+
+        while (exp <= Integer.MAX_VALUE) {
+            if (level == table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+
+            table[level] = (int) exp;
+            exp += getExpAtLevel(level);
+            level++;
+        }
+
+        return Arrays.copyOf(table, level);
+    }
+
     //This method is used to update both the recorded total experience and displayed total experience.
-    //We reset both types to prevent issues.
+    //Level and progress are calculated directly instead of giving the experience level by level.
     public static void setTotalExperience(final Player player, final int exp) {
         if (exp < 0) {
             throw new IllegalArgumentException("Experience is negative!");
         }
-        player.setExp(0);
-        player.setLevel(0);
-        player.setTotalExperience(0);
-
-        //This following code is technically redundant now, as bukkit now calulcates levels more or less correctly
-        //At larger numbers however... player.getExp(3000), only seems to give 2999, putting the below calculations off.
-        int amount = exp;
-        while (amount > 0) {
-            final int expToLevel = getExpAtLevel(player);
-            amount -= expToLevel;
-            if (amount >= 0) {
-                // give until next level
-                player.giveExp(expToLevel);
-            } else {
-                // give the rest
-                amount += expToLevel;
-                player.giveExp(amount);
-                amount = 0;
-            }
-        }
+
+        int level = getLevelForExp(exp);
+        float progress = level < MAX_LEVEL ? (float) (exp - EXP_TO_LEVEL[level]) / getExpAtLevel(level) : 0F;
+
+        player.setLevel(level);
+        player.setExp(progress);
+        player.setTotalExperience(exp);
     }
 
     private static int getExpAtLevel(final Player player) {
@@ -68,33 +79,55 @@ public class SetExpFix {
     }
 
     public static int getExpToLevel(final int level) {
-        int currentLevel = 0;
-        int exp = 0;
+        if (level <= 0) {
+            return 0;
+        } else if (level > MAX_LEVEL) {
+            return Integer.MAX_VALUE;
+        }
 
-        while (currentLevel < level) {
-            exp += getExpAtLevel(currentLevel);
-            currentLevel++;
+        return EXP_TO_LEVEL[level];
+    }
+
+    public static int getLevelForExp(final int exp) {
+        if (exp <= 0) {
+            return 0;
         }
-        if (exp < 0) {
-            exp = Integer.MAX_VALUE;
+
+        //Solve the equations found at http://minecraft.gamepedia.com/Experience for the level
+        int level;
+        if (exp < 352) {
+            //Level 0 - 15
+            level = (int) (Math.sqrt(exp + 9) - 3);
+        } else if (exp < 1507) {
+            //Level 16 - 30
+            level = (int) ((81 + Math.sqrt(40 * exp - 7839)) / 10);
+        } else {
+            //Level 31+
+            level = (int) ((325 + Math.sqrt(72 * (double) exp - 54215)) / 18);
+        }
+
+        //Correct floating point errors with the exact table
+        level = Math.max(0, Math.min(level, MAX_LEVEL));
+        while (level > 0 && EXP_TO_LEVEL[level] > exp) {
+            level--;
+        }
+        while (level < MAX_LEVEL && EXP_TO_LEVEL[level + 1] <= exp) {
+            level++;
         }
-        return exp;
+
+        return level;
     }
 
     //This method is required because the bukkit player.getTotalExperience() method, shows exp that has been 'spent'.
     //Without this people would be able to use exp and then still sell it.
     public static int getTotalExperience(final Player player) {
-        int exp = Math.round(getExpAtLevel(player) * player.getExp());
-        int currentLevel = player.getLevel();
-
-        while (currentLevel > 0) {
-            currentLevel--;
-            exp += getExpAtLevel(currentLevel);
+        int level = player.getLevel();
+        if (level > MAX_LEVEL) {
+            return Integer.MAX_VALUE;
         }
-        if (exp < 0) {
-            exp = Integer.MAX_VALUE;
-        }
-        return exp;
+
+        long exp = (long) EXP_TO_LEVEL[level] + Math.round(getExpAtLevel(level) * player.getExp());
+        return exp > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) exp;
     }
 
     public static int getExpUntilNextLevel(final Player player) {
@@ -103,4 +136,4 @@ public class SetExpFix {
         return getExpAtLevel(nextLevel) - exp;
     }
 
-}
\ No newline at end of file
+}
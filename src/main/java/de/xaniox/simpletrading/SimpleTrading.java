@@ -21,9 +21,16 @@ import de.xaniox.simpletrading.Trade.StopCause;
 import de.xaniox.simpletrading.config.ItemControlManager;
 import de.xaniox.simpletrading.config.TradeConfiguration;
 import de.xaniox.simpletrading.config.WorldControlManager;
+import de.xaniox.simpletrading.event.TradeEventBus;
 import de.xaniox.simpletrading.i18n.I18N;
 import de.xaniox.simpletrading.i18n.I18NBuilder;
 import de.xaniox.simpletrading.i18n.I18NManager;
+import de.xaniox.simpletrading.scheduler.FoliaTaskScheduler;
+import de.xaniox.simpletrading.scheduler.TaskScheduler;
+import de.xaniox.simpletrading.scheduler.TaskScheduler.ScheduledTask;
+import de.xaniox.simpletrading.scheduler.TaskSchedulers;
+import de.xaniox.simpletrading.scheduler.TickDriver;
+import de.xaniox.simpletrading.scheduler.TimingWheel;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -35,7 +42,6 @@ import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitTask;
 import org.mcstats.Metrics;
 
 import java.io.File;
@@ -47,23 +53,34 @@ import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 public class SimpleTrading extends JavaPlugin {
 
     private static final String I18N_CLASSPATH_FOLDER = "i18n/";
 	private static final String VAULT_PLUGIN_NAME = "Vault";
+	private static final long TICK_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
 	
 	private TradeConfiguration config;
 	private I18NManager i18nManager;
 	private TradeFactory factory;
-	private BukkitTask movementTask;
+	private TaskScheduler scheduler;
+	private ScheduledTask driverTask;
+	private TickDriver tickDriver;
+	private TimingWheel timeoutWheel;
 	private ItemControlManager itemControlManager;
     private WorldControlManager worldControlManager;
+    private PlayerSpatialIndex spatialIndex;
+    private TradeEventBus eventBus;
+    private volatile TradeInventoryPool inventoryPool;
+    private EconomyGateway economyGateway;
+    private PlatformAdapter platformAdapter;
 	
 	private boolean usingVault;
 	private Economy econ;
-	private boolean isDisabling;
+	private MoneyFormat moneyFormat;
+	private volatile boolean isDisabling;
 
 	public void onEnable() {
 		File configFile = new File(this.getDataFolder(), "config.yml");
@@ -79,7 +96,7 @@ public class SimpleTrading extends JavaPlugin {
         File i18nFolder = new File(getDataFolder(), "i18n");
         i18nFolder.mkdirs();
 
-		config = new TradeConfiguration(getConfig());
+		config = new TradeConfiguration(getConfig(), getLogger());
         I18NManager.setGlobalBuilder(I18NBuilder.builder()
             .setFileSystemFolder(i18nFolder)
             .setClasspathFolder(I18N_CLASSPATH_FOLDER)
@@ -90,19 +107,46 @@ public class SimpleTrading extends JavaPlugin {
 		
 		initVaultHook();
 		
+		//Resolve everything that differs between server versions once
+		platformAdapter = new PlatformAdapter(getLogger());
+		inventoryPool = new TradeInventoryPool(TradeInventoryTemplate.build(config, moneyFormat, usingVault, platformAdapter),
+				config.getInventoryPoolSize());
+		
 		itemControlManager = new ItemControlManager(config);
         worldControlManager = new WorldControlManager(config);
+        
+        spatialIndex = new PlayerSpatialIndex(config, worldControlManager);
+        spatialIndex.rebuild();
+        getServer().getPluginManager().registerEvents(spatialIndex, this);
+		
+		scheduler = TaskSchedulers.create(this);
+		timeoutWheel = new TimingWheel(getLogger());
+		
+		//All periodic and deferred work of the plugin runs in this single task
+		tickDriver = new TickDriver(scheduler, getLogger(), TICK_BUDGET_NANOS);
+		tickDriver.addPeriodic(TickDriver.Phase.TIMERS, timeoutWheel);
+		driverTask = scheduler.runTimer(tickDriver, 1L, 1L);
+		
+		if (usingVault) {
+			//Blocking economy providers must not be called on the server thread
+			economyGateway = new EconomyGateway(this, scheduler, config.getEconomyThreads(), config.getEconomyQueueSize(),
+					config.getEconomyTimeoutMillis(), config.getEconomyBreakerThreshold(),
+					config.getEconomyBreakerCooldown() * 1000L);
+		}
 		
-		factory = new TradeFactory(this, config, econ, itemControlManager);
+		eventBus = new TradeEventBus(getLogger());
+		factory = new TradeFactory(this, config, econ, itemControlManager, timeoutWheel);
 		
 		getCommand("trade").setExecutor(new CommandTrade(this));
-		movementTask = getServer().getScheduler().runTaskTimer(this, new MoveCheckerRunnable(factory, config), 20L, 30L);
 
-		try {
-			Metrics metrics = new Metrics(this);
-			metrics.start();
-		} catch (IOException e) {
-			getLogger().warning("Could not start metrics service: " + e);
+		//Metrics schedules through the Bukkit scheduler which is not available on region threaded servers
+		if (!(scheduler instanceof FoliaTaskScheduler)) {
+			try {
+				Metrics metrics = new Metrics(this);
+				metrics.start();
+			} catch (IOException | RuntimeException e) {
+				getLogger().warning("Could not start metrics service: " + e);
+			}
 		}
 
         PluginDescriptionFile pdf = getDescription();
@@ -116,12 +160,33 @@ public class SimpleTrading extends JavaPlugin {
 		isDisabling = true;
 		HandlerList.unregisterAll(this);
 		
-		if (movementTask != null) {
-			movementTask.cancel();
+		if (driverTask != null) {
+			driverTask.cancel();
 		}
 		
 		if (factory != null) {
 			factory.stopAllTrades(StopCause.SERVER_SHUTDOWN);
+			factory.cancelAllRequests();
+		}
+		
+		if (economyGateway != null) {
+			economyGateway.shutdown();
+		}
+		
+		if (timeoutWheel != null) {
+			timeoutWheel.clear();
+		}
+		
+		if (tickDriver != null) {
+			tickDriver.clear();
+		}
+		
+		if (inventoryPool != null) {
+			inventoryPool.clear();
+		}
+		
+		if (eventBus != null) {
+			eventBus.clear();
 		}
 	}
 
@@ -160,6 +225,7 @@ public class SimpleTrading extends JavaPlugin {
 		
 		usingVault = true;
 		econ = rsp.getProvider();
+		moneyFormat = new MoneyFormat(econ, getLogger());
 	}
 	
 	public void reload() {
@@ -169,6 +235,11 @@ public class SimpleTrading extends JavaPlugin {
 
 		itemControlManager.updateValues(config);
         worldControlManager.updateValues(config);
+        spatialIndex.updateValues(config);
+        spatialIndex.rebuild();
+        //Running trades keep releasing into the pool of the old template
+        inventoryPool = new TradeInventoryPool(TradeInventoryTemplate.build(config, moneyFormat, usingVault, platformAdapter),
+                config.getInventoryPoolSize());
 	}
 
     public static void copyResource(URL resourceUrl, File destination) throws IOException {
@@ -196,9 +267,37 @@ public class SimpleTrading extends JavaPlugin {
 		return usingVault;
 	}
 	
+	public TaskScheduler getTaskScheduler() {
+		return scheduler;
+	}
+	
+	public PlatformAdapter getPlatformAdapter() {
+		return platformAdapter;
+	}
+	
+	public EconomyGateway getEconomyGateway() {
+		return economyGateway;
+	}
+	
+	public TradeInventoryPool getInventoryPool() {
+		return inventoryPool;
+	}
+	
+	public TradeEventBus getEventBus() {
+		return eventBus;
+	}
+	
+	public TickDriver getTickDriver() {
+		return tickDriver;
+	}
+	
 	public Economy getEconomy() {
 		return econ;
 	}
+	
+	public MoneyFormat getMoneyFormat() {
+		return moneyFormat;
+	}
 
 	public boolean isDisabling() {
 		return isDisabling;
@@ -215,4 +314,8 @@ public class SimpleTrading extends JavaPlugin {
     public WorldControlManager getWorldControlManager() {
         return worldControlManager;
     }
+
+    public PlayerSpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
 }
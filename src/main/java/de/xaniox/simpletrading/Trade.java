@@ -18,6 +18,7 @@
 package de.xaniox.simpletrading;
 
 import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
 
 public interface Trade {
 	
@@ -27,14 +28,18 @@ public interface Trade {
 	
 	public TradeState getState();
 	
-	public void setState(TradeState state);
+	public boolean setState(TradeState state);
 	
-	public void accept();
+	public boolean compareAndSetState(TradeState expect, TradeState update);
+	
+	public boolean accept();
 	
 	public void stop(StopCause cause, TradePlayer who);
 	
 	public void onInventoryClick(InventoryClickEvent event);
 	
+	public void onInventoryDrag(InventoryDragEvent event);
+	
 	public enum StopCause {
 		
 		INVENTORY_CLOSE,
@@ -44,6 +49,7 @@ public interface Trade {
 		LEFT_WORLD, 
 		TIMEOUT,
         DECLINE,
+        SETTLEMENT_FAILED,
 		SERVER_SHUTDOWN
 		
 	}
@@ -17,151 +17,222 @@
  */
 package de.xaniox.simpletrading;
 
-import com.google.common.collect.Sets;
 import de.xaniox.simpletrading.Trade.StopCause;
 import de.xaniox.simpletrading.config.ItemControlManager;
 import de.xaniox.simpletrading.config.TradeConfiguration;
 import de.xaniox.simpletrading.config.WorldControlManager;
+import de.xaniox.simpletrading.event.EventTopic;
+import de.xaniox.simpletrading.event.TradeAcceptEvent;
+import de.xaniox.simpletrading.event.TradeRequestEndEvent;
+import de.xaniox.simpletrading.event.TradeRequestEvent;
 import de.xaniox.simpletrading.i18n.I18N;
 import de.xaniox.simpletrading.i18n.I18NManager;
 import de.xaniox.simpletrading.i18n.Messages;
+import de.xaniox.simpletrading.scheduler.TickDriver;
+import de.xaniox.simpletrading.scheduler.TimingWheel;
 import net.milkbowl.vault.economy.Economy;
-import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.GameMode;
 import org.bukkit.entity.Entity;
-import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
-import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
-import org.bukkit.event.entity.PlayerDeathEvent;
-import org.bukkit.event.inventory.InventoryClickEvent;
-import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.player.*;
-import org.bukkit.scheduler.BukkitScheduler;
-import org.bukkit.scheduler.BukkitTask;
 
-import java.util.Set;
+import java.util.List;
 
 public class TradeFactory implements Listener {
 
     private final I18N i18n = I18NManager.getGlobal();
 	private final SimpleTrading plugin;
 	private final TradeConfiguration config;
-	private final Set<Trade> trades;
+	private final TradeRegistry registry;
+	private final RequestRegistry requests;
 	private final Economy econ;
 	private final ItemControlManager controlManager;
+	private final TimingWheel timeoutWheel;
+	private final ProximityTracker proximityTracker;
+	private final TradeSessionListener sessionListener;
 	
-	public TradeFactory(SimpleTrading plugin, TradeConfiguration config, Economy econ, ItemControlManager controlManager) {
+	public TradeFactory(SimpleTrading plugin, TradeConfiguration config, Economy econ, ItemControlManager controlManager,
+			TimingWheel timeoutWheel) {
 		this.plugin = plugin;
 		this.config = config;
-		this.trades = Sets.newLinkedHashSet();
+		this.registry = new TradeRegistry();
+		this.requests = new RequestRegistry();
 		this.econ = econ;
 		this.controlManager = controlManager;
+		this.timeoutWheel = timeoutWheel;
+		this.proximityTracker = new ProximityTracker(plugin, this, plugin.getSpatialIndex());
+		this.sessionListener = new TradeSessionListener(plugin, this);
 		
 		plugin.getServer().getPluginManager().registerEvents(this, plugin);
 	}
 	
-	public Trade initiateTrade(Player initiator, Player partner) {
-		Trade trade;
-		
+	public TradeRequest initiateTrade(Player initiator, Player partner) {
 		if (isInvolvedInTrade(initiator)) {
-			trade = null;
-		} else if (isInvolvedInTrade(partner)) {
+			return null;
+		}
+		
+		if (isInvolvedInTrade(partner)) {
             initiator.sendMessage(i18n.getVarString(Messages.General.PARTNER_ALREADY_INVOLVED)
                 .setVariable("player", partner.getName())
                 .toString());
-			trade = null;
-		} else {
-			DefaultTrade simpleTrade = new DefaultTrade(initiator, partner, config, econ, controlManager, plugin);
-			
-			int timeout = config.getTimeout();
-			final BukkitTask timeoutTask = Bukkit.getScheduler().runTaskLater(plugin, new TimeoutRunnable(simpleTrade), timeout * 20L);
-			
-			simpleTrade.setListener(new DefaultTrade.StateChangedListener() {
-				
-				@Override
-				public void onStateChanged(Trade trade, TradeState newState) {
-					switch (newState) {
-					case CANCELLED:
-						//$FALL-THROUGH$
-					case CONTRACTED:
-						trades.remove(trade);
-					case TRADING:
-						int taskId = timeoutTask.getTaskId();
-						BukkitScheduler scheduler = Bukkit.getScheduler();
-						if (scheduler.isCurrentlyRunning(taskId) || scheduler.isQueued(taskId)) {
-							timeoutTask.cancel();
-						}
-					default:
-						break;
-					}
-				}
-			});
-			
-			trades.add(simpleTrade);
-			trade = simpleTrade;
-			
-			initiator.sendMessage(i18n.getVarString(Messages.General.TRADE_REQUESTED)
-                    .setVariable("player", partner.getName())
-                    .toString());
-			partner.sendMessage(i18n.getVarString(Messages.General.TRADE_REQUEST_RECEIVED)
-                    .setVariable("player", initiator.getName())
-                    .toString());
+			return null;
 		}
 		
-		return trade;
-	}
-	
-	public void declineTrade(Player decliner) {
-		Trade trade = getTrade(decliner);
-		if (trade == null) {
-			throw new IllegalStateException(decliner.getName() + " is not involved in any trade. Can not decline.");
+		TradeRequest reverse = requests.get(initiator, partner);
+		if (reverse != null) {
+			//Both players requested a trade with each other
+			acceptTrade(reverse);
+			return null;
 		}
 		
-		if (trade.getState() != TradeState.REQUESTED) {
-			return;
+		TradeRequest previous = requests.get(partner, initiator);
+		if (previous != null && requests.remove(previous)) {
+			//Requesting again renews the pending request
+			previous.cancelTimeout();
+		}
+		
+		TradeRequest request = new TradeRequest(initiator, partner);
+		if (!requests.add(request, config.getMaxPendingRequests())) {
+            initiator.sendMessage(i18n.getVarString(Messages.General.TOO_MANY_PENDING_REQUESTS)
+                .setVariable("player", partner.getName())
+                .toString());
+			return null;
+		}
+		
+		int timeout = config.getTimeout();
+		request.setTimeout(timeoutWheel.schedule(new TimeoutRunnable(request), timeout * 20L));
+		
+		EventTopic<TradeRequestEvent> requestTopic = plugin.getEventBus().getRequestTopic();
+		if (requestTopic.hasSubscribers()) {
+			requestTopic.publish(new TradeRequestEvent(request));
+		}
+		
+		initiator.sendMessage(i18n.getVarString(Messages.General.TRADE_REQUESTED)
+                .setVariable("player", partner.getName())
+                .toString());
+		partner.sendMessage(i18n.getVarString(Messages.General.TRADE_REQUEST_RECEIVED)
+                .setVariable("player", initiator.getName())
+                .toString());
+		
+		return request;
+	}
+	
+	public boolean declineTrade(TradeRequest request) {
+		if (!requests.remove(request)) {
+			return false;
 		}
 		
-		trade.setState(TradeState.CANCELLED);
-		trades.remove(trade);
+		request.cancelTimeout();
+		fireRequestEnd(request, TradeRequestEndEvent.Cause.DECLINED);
 		
-		Player initiator = trade.getInitiator().getPlayer();
+		Player initiator = request.getInitiator();
+		Player partner = request.getPartner();
         initiator.sendMessage(i18n.getVarString(Messages.General.TRADE_REQUEST_DECLINED)
-            .setVariable("player", decliner.getName())
+            .setVariable("player", partner.getName())
             .toString());
+        partner.sendMessage(i18n.getVarString(Messages.General.TRADE_DECLINED)
+            .setVariable("player", initiator.getName())
+            .toString());
+		return true;
 	}
 	
-	private void timeoutTrade(Trade trade) {
-		if (trade.getState() != TradeState.REQUESTED) {
+	private void timeoutRequest(TradeRequest request) {
+		if (!requests.remove(request)) {
 			return;
 		}
 		
-		trades.remove(trade);
-		trade.stop(StopCause.TIMEOUT, trade.getInitiator());
+		fireRequestEnd(request, TradeRequestEndEvent.Cause.TIMED_OUT);
+		
+		Player initiator = request.getInitiator();
+		Player partner = request.getPartner();
+        initiator.sendMessage(i18n.getVarString(Messages.General.REQUEST_TIMED_OUT)
+            .setVariable("player", partner.getName())
+            .toString());
+        partner.sendMessage(i18n.getVarString(Messages.General.REQUEST_TIMED_OUT)
+            .setVariable("player", initiator.getName())
+            .toString());
 	}
 	
-	public void acceptTrade(Player accepter) {
-		Trade trade = getTrade(accepter);
-		if (trade == null) {
-			throw new IllegalStateException(accepter.getName() + " is not involved in any trade. Can not accept.");
+	public Trade acceptTrade(TradeRequest request) {
+		Player initiator = request.getInitiator();
+		Player partner = request.getPartner();
+		
+		//The request stays pending while one of the players is still busy with another trade
+		if (notifyIfInvolved(partner, initiator, partner)) {
+			return null;
 		}
 		
-		if (trade.getState() != TradeState.REQUESTED) {
-			return;
+		if (!requests.remove(request)) {
+			//Already accepted, declined or timed out
+			return null;
+		}
+		
+		request.cancelTimeout();
+		
+		//The trade session is only created once a request has been accepted
+		DefaultTrade trade = new DefaultTrade(initiator, partner, config, econ, controlManager, plugin);
+		trade.setListener(new DefaultTrade.StateChangedListener() {
+			
+			@Override
+			public void onStateChanged(Trade trade, TradeState newState) {
+				switch (newState) {
+				case CANCELLED:
+					//$FALL-THROUGH$
+				case CONTRACTED:
+					registry.unregister(trade);
+					proximityTracker.unwatch(trade);
+					sessionListener.unwatch(trade);
+					break;
+				case TRADING:
+					sessionListener.watch(trade);
+					proximityTracker.watch(trade);
+					break;
+				default:
+					break;
+				}
+			}
+		});
+		
+		if (!registry.register(trade)) {
+			//One of the players has started another trade in the meantime
+			notifyIfInvolved(partner, initiator, partner);
+			return null;
+		}
+		
+		if (!trade.accept()) {
+			registry.unregister(trade);
+			return null;
 		}
 		
-		Player initiator = trade.getInitiator().getPlayer();
         initiator.sendMessage(i18n.getVarString(Messages.General.TRADE_ACCEPTED)
-            .setVariable("player", accepter.getName())
+            .setVariable("player", partner.getName())
             .toString());
 		
-		trade.accept();
+		EventTopic<TradeAcceptEvent> acceptTopic = plugin.getEventBus().getAcceptTopic();
+		if (acceptTopic.hasSubscribers()) {
+			acceptTopic.publish(new TradeAcceptEvent(trade));
+		}
+		
+		return trade;
+	}
+	
+	private boolean notifyIfInvolved(Player recipient, Player initiator, Player partner) {
+		Player involved = isInvolvedInTrade(initiator) ? initiator : isInvolvedInTrade(partner) ? partner : null;
+		if (involved == null) {
+			return false;
+		}
+		
+        recipient.sendMessage(i18n.getVarString(Messages.General.PARTNER_ALREADY_INVOLVED)
+            .setVariable("player", involved.getName())
+            .toString());
+		return true;
 	}
 	
 	public void stopTrade(Trade trade, StopCause cause, Player who) {
-		if (!trades.contains(trade)) {
+		if (!registry.contains(trade)) {
 			return;
 		}
 		
@@ -175,33 +246,47 @@ public class TradeFactory implements Listener {
 		}
 		
 		trade.stop(cause, tradePlayer);
-		trades.remove(trade);
+		registry.unregister(trade);
 	}
 	
 	public void stopAllTrades(StopCause cause) {
-		for (Trade trade : trades) {
+		for (Trade trade : registry.getTrades()) {
 			trade.stop(cause, trade.getInitiator());
 		}
 	}
 	
-	public boolean isInvolvedInTrade(Player player) {
-		for (Trade trade : trades) {
-			if (trade.getInitiator().getPlayer() == player || trade.getPartner().getPlayer() == player) {
-				return true;
-			}
+	public void cancelAllRequests() {
+		for (TradeRequest request : requests.clear()) {
+			request.cancelTimeout();
+			fireRequestEnd(request, TradeRequestEndEvent.Cause.SERVER_SHUTDOWN);
 		}
-		
-		return false;
 	}
 	
-	public Trade getTrade(Player player) {
-		for (Trade trade : trades) {
-			if (trade.getInitiator().getPlayer() == player || trade.getPartner().getPlayer() == player) {
-				return trade;
-			}
+	private void fireRequestEnd(TradeRequest request, TradeRequestEndEvent.Cause cause) {
+		EventTopic<TradeRequestEndEvent> requestEndTopic = plugin.getEventBus().getRequestEndTopic();
+		if (requestEndTopic.hasSubscribers()) {
+			requestEndTopic.publish(new TradeRequestEndEvent(request, cause));
 		}
-		
-		return null;
+	}
+	
+	public boolean isInvolvedInTrade(Player player) {
+		return registry.isInvolved(player);
+	}
+	
+	public Trade getTrade(Player player) {
+		return registry.getTrade(player);
+	}
+	
+	public TradeRequest getRequest(Player partner, Player initiator) {
+		return requests.get(partner, initiator);
+	}
+	
+	public TradeRequest getLatestRequest(Player partner) {
+		return requests.getLatest(partner);
+	}
+	
+	public List<TradeRequest> getRequests(Player partner) {
+		return requests.getRequests(partner);
 	}
 	
 	@EventHandler
@@ -233,51 +318,32 @@ public class TradeFactory implements Listener {
             player.sendMessage(i18n.getString(Messages.Command.CANNOT_TRADE_IN_WORLD));
             return;
         }
+
+        if (!plugin.getSpatialIndex().isInRange(player, tradePartner)) {
+            player.sendMessage(i18n.getString(Messages.Command.PARTNER_TOO_FAR_AWAY));
+            return;
+        }
 		
-		Trade trade = getTrade(player);
-		if (trade == null) {
+		if (isInvolvedInTrade(player)) {
+			return;
+		}
+		
+		TradeRequest request = getRequest(player, tradePartner);
+		if (request == null) {
 			if (!player.hasPermission(Permissions.TRADE_INITIATE_SHIFT.getPermission())) {
 				player.sendMessage(ChatColor.RED + "You don't have permission to trade!");
 				return;
 			}
 
 			initiateTrade(player, tradePartner);
-		} else if (trade.getPartner().getPlayer() == player) {
+		} else {
 			if (!player.hasPermission(Permissions.TRADE_ACCEPT_SHIFT.getPermission())) {
 				player.sendMessage(ChatColor.RED + "You don't have the permission the accept trades!");
 				return;
 			}
 
-			acceptTrade(player);
-		}
-	}
-	
-	@EventHandler(priority = EventPriority.HIGHEST)
-	public void onPlayerPickupItem(PlayerPickupItemEvent event) {
-		Player player = event.getPlayer();
-		Trade trade = getTrade(player);
-		
-		if (trade == null || trade.getState() != TradeState.TRADING) {
-			return;
+			acceptTrade(request);
 		}
-		
-		event.setCancelled(true);
-	}
-	
-	@EventHandler
-	public void onInventoryClose(InventoryCloseEvent event) {
-		HumanEntity entity = event.getPlayer();
-		if (!(entity instanceof Player)) {
-			return;
-		}
-		
-		Player player = (Player) entity;
-		Trade trade = getTrade(player);
-		if (trade == null || trade.getState() != TradeState.TRADING) {
-			return;
-		}
-		
-		stopTrade(trade, StopCause.INVENTORY_CLOSE, player);
 	}
 	
 	@EventHandler
@@ -292,55 +358,39 @@ public class TradeFactory implements Listener {
 	
 	private void handleQuit(PlayerEvent event) {
 		Player player = event.getPlayer();
-		Trade trade = getTrade(player);
-		
-		if (trade == null) {
-			return;
+		for (TradeRequest request : requests.removeAll(player)) {
+			request.cancelTimeout();
+			fireRequestEnd(request, TradeRequestEndEvent.Cause.PLAYER_LEFT);
 		}
 		
-		stopTrade(trade, StopCause.QUIT, player);
-	}
-	
-	@EventHandler
-	public void onPlayerDeath(PlayerDeathEvent event) {
-		Player player = event.getEntity();
 		Trade trade = getTrade(player);
 		
-		if (trade == null || trade.getState() != TradeState.TRADING) {
-			return;
-		}
-		
-		stopTrade(trade, StopCause.DEATH, player);
-	}
-	
-	@EventHandler
-	public void onInventoryClick(InventoryClickEvent event) {
-		HumanEntity entity = event.getWhoClicked();
-		if (!(entity instanceof Player)) {
-			return;
-		}
-		
-		Player player = (Player) entity;
-		Trade trade = getTrade(player);
-		
-		if (trade == null || trade.getState() != TradeState.TRADING) {
+		if (trade == null) {
 			return;
 		}
 		
-		trade.onInventoryClick(event);
+		stopTrade(trade, StopCause.QUIT, player);
 	}
 	
 	private class TimeoutRunnable implements Runnable {
 		
-		private Trade trade;
+		private TradeRequest request;
 		
-		public TimeoutRunnable(Trade trade) {
-			this.trade = trade;
+		public TimeoutRunnable(TradeRequest request) {
+			this.request = request;
 		}
 		
 		@Override
 		public void run() {
-			timeoutTrade(trade);
+			//Expiry bursts are spread over the deferred phase, which continues
+			//on the thread owning the initiator
+			plugin.getTickDriver().defer(TickDriver.Phase.DEFERRED, request.getInitiator(), new Runnable() {
+				
+				@Override
+				public void run() {
+					timeoutRequest(request);
+				}
+			});
 		}
 		
 	}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Lists;
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.Inventory;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TradeInventoryPool {
+
+    private final TradeInventoryTemplate template;
+    private final int maxSize;
+    private final LinkedHashMap<String, Deque<Inventory>> pooled;
+    private int size;
+
+    public TradeInventoryPool(TradeInventoryTemplate template, int maxSize) {
+        this.template = template;
+        this.maxSize = maxSize;
+        //Access ordered so the titles used least recently are evicted first
+        this.pooled = new LinkedHashMap<String, Deque<Inventory>>(16, 0.75F, true);
+    }
+
+    public TradeInventoryTemplate getTemplate() {
+        return template;
+    }
+
+    public Inventory acquire(String title) {
+        synchronized (this) {
+            Deque<Inventory> inventories = pooled.get(title);
+
+            while (inventories != null && !inventories.isEmpty()) {
+                Inventory inventory = inventories.poll();
+                size--;
+
+                if (inventories.isEmpty()) {
+                    pooled.remove(title);
+                }
+
+                //Never hand out an inventory somebody still looks at
+                if (inventory.getViewers().isEmpty()) {
+                    return inventory;
+                }
+            }
+        }
+
+        Inventory inventory = Bukkit.createInventory(null, template.getLayout().getSize(), title);
+        template.stamp(inventory);
+        return inventory;
+    }
+
+    public void release(Inventory inventory, String title) {
+        if (maxSize <= 0 || inventory == null || !inventory.getViewers().isEmpty()
+                || inventory.getSize() != template.getLayout().getSize()) {
+            //The inventory may still be open somewhere, leave it to the garbage collector
+            return;
+        }
+
+        //Only the slots a trade writes to have to be restored
+        template.resetDynamicSlots(inventory);
+
+        synchronized (this) {
+            Deque<Inventory> inventories = pooled.get(title);
+            if (inventories == null) {
+                inventories = Lists.newLinkedList();
+                pooled.put(title, inventories);
+            }
+
+            inventories.push(inventory);
+            size++;
+
+            Iterator<Map.Entry<String, Deque<Inventory>>> iterator = pooled.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Deque<Inventory> eldest = iterator.next().getValue();
+                eldest.pollLast();
+                size--;
+
+                if (eldest.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        pooled.clear();
+        size = 0;
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Lists;
+import de.xaniox.simpletrading.config.TradeConfiguration;
+import de.xaniox.simpletrading.config.TradeLayout;
+import de.xaniox.simpletrading.config.TradeLayout.SlotAction;
+import de.xaniox.simpletrading.i18n.I18N;
+import de.xaniox.simpletrading.i18n.I18NManager;
+import de.xaniox.simpletrading.i18n.Messages;
+import org.bukkit.ChatColor;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.List;
+
+public class TradeInventoryTemplate {
+
+    private final TradeLayout layout;
+    private final ItemStack[] contents;
+    private final int[] dynamicSlots;
+
+    private TradeInventoryTemplate(TradeLayout layout, ItemStack[] contents, int[] dynamicSlots) {
+        this.layout = layout;
+        this.contents = contents;
+        this.dynamicSlots = dynamicSlots;
+    }
+
+    public static TradeInventoryTemplate build(TradeConfiguration config, MoneyFormat moneyFormat, boolean usesVault,
+                                               PlatformAdapter platformAdapter) {
+        I18N i18n = I18NManager.getGlobal();
+        TradeLayout layout = config.getLayout();
+        ItemStack[] contents = new ItemStack[layout.getSize()];
+        boolean usesMoney = usesVault && config.usesMoneyTrading();
+        boolean usesXp = config.usesXpTrading();
+
+        ItemStack seperator = config.getSeperatorBlockData().newItemStack();
+        ItemMeta seperatorMeta = seperator.getItemMeta();
+        seperatorMeta.setDisplayName(ChatColor.ITALIC.toString());
+        seperator.setItemMeta(seperatorMeta);
+
+        List<String> addMoneyLore = Lists.newArrayList(i18n.getString(Messages.Inventory.ADD_MONEY_LORE).split("\n"));
+
+        List<Integer> dynamicSlots = Lists.newArrayList();
+
+        for (int slot = 0; slot < contents.length; slot++) {
+            ItemStack stack;
+            SlotAction action = layout.getAction(slot);
+
+            switch (action) {
+                case SEPERATOR:
+                    stack = seperator;
+                    break;
+                case ACCEPT:
+                    stack = createButton(config.getAcceptBlockData().newItemStack(1),
+                            i18n.getString(Messages.Inventory.ACCEPT_TRADE_TITLE), null);
+                    break;
+                case DECLINE:
+                    stack = createButton(config.getDeclineBlockData().newItemStack(1),
+                            i18n.getString(Messages.Inventory.DECLINE_TRADE_TITLE), null);
+                    break;
+                case STATUS:
+                    stack = createButton(platformAdapter.createStatusItem(false),
+                            i18n.getVarString(Messages.Inventory.TRADE_STATUS_TITLE)
+                                .setVariable("color", ChatColor.RED.toString())
+                                .toString(),
+                            Lists.newArrayList(i18n.getString(Messages.Inventory.WAITING_FOR_OTHER_PLAYER_LORE)));
+                    break;
+                case MONEY_INFO:
+                    //The offer lore of the info items is filled in per trade
+                    stack = usesMoney ? createButton(config.getMoneyStatusBlockData().newItemStack(),
+                            i18n.getString(Messages.Inventory.MONEY_INFO_TITLE), null) : seperator;
+                    break;
+                case EXP_INFO:
+                    stack = usesXp ? createButton(config.getXpStatusBlockData().newItemStack(),
+                            i18n.getString(Messages.Inventory.EXP_INFO_TITLE), null) : seperator;
+                    break;
+                case ADD_MONEY:
+                    stack = usesMoney ? createButton(config.getMoneyAddRemoveBlockData().newItemStack(),
+                            i18n.getVarString(Messages.Inventory.ADD_REMOVE_MONEY_LORE)
+                                .setVariable("money", moneyFormat.format(layout.getValue(slot)))
+                                .toString(),
+                            addMoneyLore) : seperator;
+                    break;
+                case ADD_EXP:
+                    if (usesXp) {
+                        String exp = String.valueOf(layout.getValue(slot));
+
+                        stack = createButton(config.getXpAddRemoveBlockData().newItemStack(),
+                                i18n.getVarString(Messages.Inventory.ADD_EXP_TITLE)
+                                    .setVariable("exp", exp)
+                                    .toString(),
+                                Lists.newArrayList(i18n.getVarString(Messages.Inventory.ADD_EXP_LORE)
+                                    .setVariable("exp", exp)
+                                    .toString()
+                                    .split("\n")));
+                    } else {
+                        stack = seperator;
+                    }
+                    break;
+                case PREVIOUS_PAGE:
+                    stack = layout.getPageCount() > 1 ? createButton(config.getPageBlockData().newItemStack(1),
+                            i18n.getString(Messages.Inventory.PREVIOUS_PAGE_TITLE), null) : seperator;
+                    break;
+                case NEXT_PAGE:
+                    stack = layout.getPageCount() > 1 ? createButton(config.getPageBlockData().newItemStack(1),
+                            i18n.getString(Messages.Inventory.NEXT_PAGE_TITLE), null) : seperator;
+                    break;
+                default:
+                    stack = null;
+                    break;
+            }
+
+            contents[slot] = stack;
+
+            if (isDynamic(action)) {
+                dynamicSlots.add(slot);
+            }
+        }
+
+        int[] dynamicSlotArray = new int[dynamicSlots.size()];
+        for (int i = 0; i < dynamicSlotArray.length; i++) {
+            dynamicSlotArray[i] = dynamicSlots.get(i);
+        }
+
+        return new TradeInventoryTemplate(layout, contents, dynamicSlotArray);
+    }
+
+    private static boolean isDynamic(SlotAction action) {
+        //Slots which are rendered per trade after stamping
+        switch (action) {
+            case OFFER:
+            case PARTNER_OFFER:
+            case STATUS:
+            case MONEY_INFO:
+            case EXP_INFO:
+            case PREVIOUS_PAGE:
+            case NEXT_PAGE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public TradeLayout getLayout() {
+        return layout;
+    }
+
+    public ItemStack getItem(int slot) {
+        //Callers must not modify the shared stack
+        return contents[slot];
+    }
+
+    private static ItemStack createButton(ItemStack stack, String displayName, List<String> lore) {
+        ItemMeta meta = stack.getItemMeta();
+        meta.setDisplayName(displayName);
+        if (lore != null) {
+            meta.setLore(lore);
+        }
+
+        stack.setItemMeta(meta);
+        return stack;
+    }
+
+    public void stamp(Inventory inventory) {
+        //The inventory copies every stack, so the shared template stays untouched
+        inventory.setContents(contents);
+    }
+
+    public void resetDynamicSlots(Inventory inventory) {
+        for (int slot : dynamicSlots) {
+            inventory.setItem(slot, contents[slot]);
+        }
+    }
+
+}
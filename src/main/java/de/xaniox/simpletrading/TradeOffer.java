@@ -0,0 +1,143 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Maps;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.Map;
+
+public class TradeOffer {
+
+    public static final int NO_INDEX = -1;
+
+    private final ItemStack[] items;
+    private final int pageSize;
+    private final int[] fingerprints;
+    private final BitSet occupied;
+    //Fingerprint -> indexes holding a stack which is not full yet
+    private final Map<Integer, BitSet> partialStacks;
+
+    public TradeOffer(int pageSize, int pageCount) {
+        this.items = new ItemStack[pageSize * pageCount];
+        this.pageSize = pageSize;
+        this.fingerprints = new int[items.length];
+        this.occupied = new BitSet(items.length);
+        this.partialStacks = Maps.newHashMap();
+    }
+
+    public static int fingerprint(ItemStack stack) {
+        //getItemMeta() copies the whole meta, so this is computed once per incoming
+        //stack and kept per index. Candidates are still confirmed with isSimilar
+        int fingerprint = stack.getType().ordinal();
+        fingerprint = 31 * fingerprint + stack.getDurability();
+        fingerprint = 31 * fingerprint + (stack.hasItemMeta() ? stack.getItemMeta().hashCode() : 0);
+        return fingerprint;
+    }
+
+    public ItemStack get(int index) {
+        return items[index];
+    }
+
+    public int getFingerprint(int index) {
+        return fingerprints[index];
+    }
+
+    public void set(int index, ItemStack stack) {
+        set(index, stack, stack == null ? 0 : fingerprint(stack));
+    }
+
+    public void set(int index, ItemStack stack, int fingerprint) {
+        if (stack != null && (stack.getType() == Material.AIR || stack.getAmount() <= 0)) {
+            stack = null;
+        }
+
+        if (items[index] != null) {
+            BitSet partial = partialStacks.get(fingerprints[index]);
+            if (partial != null) {
+                partial.clear(index);
+                if (partial.isEmpty()) {
+                    partialStacks.remove(fingerprints[index]);
+                }
+            }
+        }
+
+        items[index] = stack;
+
+        if (stack == null) {
+            occupied.clear(index);
+            return;
+        }
+
+        occupied.set(index);
+        fingerprints[index] = fingerprint;
+
+        if (stack.getAmount() < stack.getMaxStackSize()) {
+            BitSet partial = partialStacks.get(fingerprint);
+            if (partial == null) {
+                partial = new BitSet(items.length);
+                partialStacks.put(fingerprint, partial);
+            }
+
+            partial.set(index);
+        }
+    }
+
+    public int nextMergeCandidate(int fingerprint, int fromIndex) {
+        //Either an empty index or one holding a partial stack with the same fingerprint,
+        //the caller still has to confirm the stacks are similar
+        int empty = occupied.nextClearBit(fromIndex);
+        if (empty >= items.length) {
+            empty = NO_INDEX;
+        }
+
+        BitSet partial = partialStacks.get(fingerprint);
+        int merge = partial != null ? partial.nextSetBit(fromIndex) : NO_INDEX;
+
+        if (empty == NO_INDEX) {
+            return merge;
+        } else if (merge == NO_INDEX) {
+            return empty;
+        }
+
+        return Math.min(empty, merge);
+    }
+
+    public int getCapacity() {
+        return items.length;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getPageCount() {
+        return items.length / pageSize;
+    }
+
+    public int getIndex(int page, int offerIndex) {
+        return page * pageSize + offerIndex;
+    }
+
+    public int getPage(int index) {
+        return index / pageSize;
+    }
+
+}
@@ -19,14 +19,26 @@ package de.xaniox.simpletrading;
 
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TradePlayer {
 	
 	private final Player player;
 	private Inventory inventory;
-	private int expOffer;
-	private int moneyOffer;
-	private boolean accepted;
+	//Inventory#getTitle() is not available on every server version
+	private String inventoryTitle;
+	private TradeOffer offer;
+	//Read and written from the threads of both participants
+	private volatile int page;
+	private volatile int expOffer;
+	private volatile int moneyOffer;
+	private volatile boolean accepted;
+	//NaN until the balance snapshot has been taken
+	private volatile double balance = Double.NaN;
+	private final AtomicBoolean balanceRequested = new AtomicBoolean();
+	private ItemStack lastMovedItem;
 	
 	public TradePlayer(Player player) {
 		this.player = player;
@@ -44,8 +56,29 @@ public class TradePlayer {
 		return inventory;
 	}
 	
-	public void setInventory(Inventory inventory) {
+	public void setInventory(Inventory inventory, String inventoryTitle) {
 		this.inventory = inventory;
+		this.inventoryTitle = inventoryTitle;
+	}
+	
+	public String getInventoryTitle() {
+		return inventoryTitle;
+	}
+	
+	public TradeOffer getOffer() {
+		return offer;
+	}
+	
+	public void setOffer(TradeOffer offer) {
+		this.offer = offer;
+	}
+	
+	public int getPage() {
+		return page;
+	}
+	
+	public void setPage(int page) {
+		this.page = page;
 	}
 	
 	public void setExpOffer(int expOffer) {
@@ -72,6 +105,27 @@ public class TradePlayer {
 		return moneyOffer;
 	}
 	
+	public double getBalance() {
+		return balance;
+	}
+	
+	public void setBalance(double balance) {
+		this.balance = balance;
+	}
+	
+	public boolean hasBalance() {
+		return !Double.isNaN(balance);
+	}
+	
+	public boolean requestBalance() {
+		//Only one balance request per player may be in flight
+		return balanceRequested.compareAndSet(false, true);
+	}
+	
+	public void balanceReceived() {
+		balanceRequested.set(false);
+	}
+	
 	public void setAccepted(boolean accepted) {
 		this.accepted = accepted;
 	}
@@ -80,4 +134,12 @@ public class TradePlayer {
 		return accepted;
 	}
 	
+	public ItemStack getLastMovedItem() {
+		return lastMovedItem;
+	}
+	
+	public void setLastMovedItem(ItemStack lastMovedItem) {
+		this.lastMovedItem = lastMovedItem;
+	}
+	
 }
@@ -0,0 +1,104 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public class TradeRegistry {
+
+    private final Set<Trade> trades;
+    private final Map<UUID, Trade> participants;
+
+    public TradeRegistry() {
+        //Concurrent as region threaded servers access trades from several threads
+        this.trades = Collections.newSetFromMap(Maps.<Trade, Boolean>newConcurrentMap());
+        this.participants = Maps.newConcurrentMap();
+    }
+
+    public synchronized boolean register(Trade trade) {
+        UUID initiatorId = getUniqueId(trade.getInitiator());
+        UUID partnerId = getUniqueId(trade.getPartner());
+
+        // A player can only be involved in one trade at a time
+        if (participants.containsKey(initiatorId) || participants.containsKey(partnerId) || !trades.add(trade)) {
+            return false;
+        }
+
+        participants.put(initiatorId, trade);
+        participants.put(partnerId, trade);
+        return true;
+    }
+
+    public synchronized boolean unregister(Trade trade) {
+        if (!trades.remove(trade)) {
+            return false;
+        }
+
+        // Only remove the mapping if it still points to this trade
+        UUID initiatorId = getUniqueId(trade.getInitiator());
+        UUID partnerId = getUniqueId(trade.getPartner());
+
+        if (participants.get(initiatorId) == trade) {
+            participants.remove(initiatorId);
+        }
+
+        if (participants.get(partnerId) == trade) {
+            participants.remove(partnerId);
+        }
+
+        return true;
+    }
+
+    public boolean contains(Trade trade) {
+        return trades.contains(trade);
+    }
+
+    public Trade getTrade(Player player) {
+        return participants.get(player.getUniqueId());
+    }
+
+    public boolean isInvolved(Player player) {
+        return participants.containsKey(player.getUniqueId());
+    }
+
+    public List<Trade> getTrades() {
+        // Return a copy as stopping a trade unregisters it
+        return Lists.newArrayList(trades);
+    }
+
+    public int size() {
+        return trades.size();
+    }
+
+    public boolean isEmpty() {
+        return trades.isEmpty();
+    }
+
+    private static UUID getUniqueId(TradePlayer player) {
+        return player.getPlayer().getUniqueId();
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import de.xaniox.simpletrading.scheduler.TimingWheel;
+import org.bukkit.entity.Player;
+
+public class TradeRequest {
+
+    private final Player initiator;
+    private final Player partner;
+    private volatile TimingWheel.Timeout timeout;
+
+    public TradeRequest(Player initiator, Player partner) {
+        this.initiator = initiator;
+        this.partner = partner;
+    }
+
+    public Player getInitiator() {
+        return initiator;
+    }
+
+    public Player getPartner() {
+        return partner;
+    }
+
+    void setTimeout(TimingWheel.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    public long getRemainingTicks() {
+        return timeout != null ? timeout.getRemainingTicks() : 0;
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Maps;
+import de.xaniox.simpletrading.Trade.StopCause;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerPickupItemEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Map;
+import java.util.UUID;
+
+public class TradeSessionListener implements Listener {
+
+    private final Plugin plugin;
+    private final TradeFactory factory;
+    private final Map<UUID, Trade> trading;
+    private boolean registered;
+
+    public TradeSessionListener(Plugin plugin, TradeFactory factory) {
+        this.plugin = plugin;
+        this.factory = factory;
+        this.trading = Maps.newConcurrentMap();
+    }
+
+    public void watch(Trade trade) {
+        trading.put(trade.getInitiator().getPlayer().getUniqueId(), trade);
+        trading.put(trade.getPartner().getPlayer().getUniqueId(), trade);
+
+        updateRegistration();
+    }
+
+    public void unwatch(Trade trade) {
+        UUID initiatorId = trade.getInitiator().getPlayer().getUniqueId();
+        UUID partnerId = trade.getPartner().getPlayer().getUniqueId();
+
+        if (trading.get(initiatorId) == trade) {
+            trading.remove(initiatorId);
+        }
+
+        if (trading.get(partnerId) == trade) {
+            trading.remove(partnerId);
+        }
+
+        updateRegistration();
+    }
+
+    private synchronized void updateRegistration() {
+        //These handlers are only of interest while at least one trade is running
+        if (!trading.isEmpty() && !registered && plugin.isEnabled()) {
+            plugin.getServer().getPluginManager().registerEvents(this, plugin);
+            registered = true;
+        } else if (trading.isEmpty() && registered) {
+            HandlerList.unregisterAll(this);
+            registered = false;
+        }
+    }
+
+    @EventHandler
+    public void onInventoryClick(InventoryClickEvent event) {
+        Trade trade = trading.get(event.getWhoClicked().getUniqueId());
+        if (trade == null || !(event.getWhoClicked() instanceof Player) || !isOpen(trade)) {
+            return;
+        }
+
+        if (trade.getState() == TradeState.CONTRACTING) {
+            //The inventories stay open while the settlement runs, nothing may be moved
+            event.setCancelled(true);
+            return;
+        }
+
+        trade.onInventoryClick(event);
+    }
+
+    @EventHandler
+    public void onInventoryDrag(InventoryDragEvent event) {
+        Trade trade = trading.get(event.getWhoClicked().getUniqueId());
+        if (trade == null || !(event.getWhoClicked() instanceof Player) || !isOpen(trade)) {
+            return;
+        }
+
+        if (trade.getState() == TradeState.CONTRACTING) {
+            event.setCancelled(true);
+            return;
+        }
+
+        trade.onInventoryDrag(event);
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPlayerPickupItem(PlayerPickupItemEvent event) {
+        Trade trade = trading.get(event.getPlayer().getUniqueId());
+        if (trade == null || !isOpen(trade)) {
+            return;
+        }
+
+        event.setCancelled(true);
+    }
+
+    private static boolean isOpen(Trade trade) {
+        //Trade inventories are open while trading and while the contract is settled
+        TradeState state = trade.getState();
+        return state == TradeState.TRADING || state == TradeState.CONTRACTING;
+    }
+
+    @EventHandler
+    public void onInventoryClose(InventoryCloseEvent event) {
+        Trade trade = trading.get(event.getPlayer().getUniqueId());
+        if (trade == null || !(event.getPlayer() instanceof Player) || trade.getState() != TradeState.TRADING) {
+            return;
+        }
+
+        Player player = (Player) event.getPlayer();
+        TradePlayer tradePlayer = trade.getInitiator().getPlayer() == player ? trade.getInitiator() : trade.getPartner();
+        if (!event.getInventory().equals(tradePlayer.getInventory())) {
+            //Some other inventory has been closed, e.g. when the trade inventory opens
+            return;
+        }
+
+        factory.stopTrade(trade, StopCause.INVENTORY_CLOSE, player);
+    }
+
+    @EventHandler
+    public void onPlayerDeath(PlayerDeathEvent event) {
+        Player player = event.getEntity();
+        Trade trade = trading.get(player.getUniqueId());
+        if (trade == null || trade.getState() != TradeState.TRADING) {
+            return;
+        }
+
+        factory.stopTrade(trade, StopCause.DEATH, player);
+    }
+
+}
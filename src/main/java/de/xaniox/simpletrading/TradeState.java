@@ -21,7 +21,27 @@ public enum TradeState {
 	
 	REQUESTED,
 	TRADING,
+	CONTRACTING,
 	CANCELLED, 
-	CONTRACTED
+	CONTRACTED;
+	
+	public boolean isTerminal() {
+		return this == CANCELLED || this == CONTRACTED;
+	}
+	
+	public boolean canTransitionTo(TradeState next) {
+		switch (this) {
+		case REQUESTED:
+			return next == TRADING || next == CANCELLED;
+		case TRADING:
+			return next == CONTRACTING || next == CANCELLED;
+		case CONTRACTING:
+			//A failed settlement is rolled back and cancelled
+			return next == CONTRACTED || next == CANCELLED;
+		default:
+			//Terminal states can't be left
+			return false;
+		}
+	}
 	
 }
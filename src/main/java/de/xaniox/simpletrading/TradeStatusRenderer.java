@@ -0,0 +1,208 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading;
+
+import com.google.common.collect.Lists;
+import de.xaniox.simpletrading.config.TradeConfiguration;
+import de.xaniox.simpletrading.config.TradeLayout;
+import de.xaniox.simpletrading.i18n.I18N;
+import de.xaniox.simpletrading.i18n.I18NManager;
+import de.xaniox.simpletrading.i18n.Messages;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.text.DecimalFormat;
+import java.util.List;
+
+public class TradeStatusRenderer {
+
+    private final I18N i18n = I18NManager.getGlobal();
+    private final TradePlayer initiator;
+    private final TradePlayer partner;
+    private final TradeConfiguration config;
+    private final MoneyFormat moneyFormat;
+    private final boolean usesMoney;
+    private final PlatformAdapter platformAdapter;
+    private final int statusSlot;
+    private final int moneyInfoSlot;
+    private final int expInfoSlot;
+
+    //Each view is only rendered on the thread owning its viewer
+    private final View initiatorView;
+    private final View partnerView;
+
+    public TradeStatusRenderer(TradePlayer initiator, TradePlayer partner, TradeConfiguration config, MoneyFormat moneyFormat,
+                               boolean usesVault, PlatformAdapter platformAdapter, TradeLayout layout) {
+        this.initiator = initiator;
+        this.partner = partner;
+        this.config = config;
+        this.moneyFormat = moneyFormat;
+        this.usesMoney = usesVault && config.usesMoneyTrading();
+        this.platformAdapter = platformAdapter;
+        this.statusSlot = layout.getStatusSlot();
+        this.moneyInfoSlot = layout.getMoneyInfoSlot();
+        this.expInfoSlot = layout.getExpInfoSlot();
+        this.initiatorView = new View(initiator, partner);
+        this.partnerView = new View(partner, initiator);
+    }
+
+    public void render(TradePlayer viewer) {
+        View view = viewer == initiator ? initiatorView : partnerView;
+        view.render();
+    }
+
+    private ItemStack createStatusStack(boolean confirmed) {
+        ItemStack statusStack = platformAdapter.createStatusItem(confirmed);
+        String loreLine = i18n.getString(confirmed ? Messages.Inventory.ONE_PLAYER_ACCEPTED
+                : Messages.Inventory.WAITING_FOR_OTHER_PLAYER_LORE);
+
+        ItemMeta meta = statusStack.getItemMeta();
+        meta.setDisplayName(i18n.getVarString(Messages.Inventory.TRADE_STATUS_TITLE)
+                .setVariable("color", String.valueOf(confirmed ? ChatColor.GREEN : ChatColor.RED))
+                .toString());
+        meta.setLore(Lists.newArrayList(ChatColor.WHITE + loreLine));
+        statusStack.setItemMeta(meta);
+        return statusStack;
+    }
+
+    private ItemStack createMoneyInfoStack(int initiatorMoney, int partnerMoney) {
+        ItemStack moneyInfo = config.getMoneyStatusBlockData().newItemStack();
+        ItemMeta moneyInfoMeta = moneyInfo.getItemMeta();
+        moneyInfoMeta.setDisplayName(i18n.getString(Messages.Inventory.MONEY_INFO_TITLE));
+
+        List<String> moneyInfoLore = Lists.newArrayList();
+        moneyInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
+                .setVariable("player", initiator.getName())
+                .setVariable("offer", moneyFormat.format(initiatorMoney))
+                .toString());
+        moneyInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
+                .setVariable("player", partner.getName())
+                .setVariable("offer", moneyFormat.format(partnerMoney))
+                .toString());
+        moneyInfoMeta.setLore(moneyInfoLore);
+        moneyInfo.setItemMeta(moneyInfoMeta);
+        return moneyInfo;
+    }
+
+    private static int getLevelDiff(int levelBase, int expBase, int expDiff) {
+        if (expDiff == 0) {
+            return 0;
+        }
+
+        return SetExpFix.getLevelForExp(expBase + expDiff) - levelBase;
+    }
+
+    private class View {
+
+        private final TradePlayer viewer;
+        private final TradePlayer other;
+        //DecimalFormat is not thread safe, each view is rendered on the thread of its viewer
+        private final DecimalFormat levelFormat;
+
+        //The inputs each slot has last been rendered with
+        private boolean renderedConfirmed;
+        private int renderedInitiatorMoney;
+        private int renderedPartnerMoney;
+        private boolean renderedExp;
+        private int renderedInitiatorExp;
+        private int renderedPartnerExp;
+        private int renderedLevel;
+        private float renderedProgress;
+
+        public View(TradePlayer viewer, TradePlayer other) {
+            this.viewer = viewer;
+            this.other = other;
+            this.levelFormat = new DecimalFormat("0");
+            this.levelFormat.setPositivePrefix("+");
+
+            //The template already shows the unconfirmed status, but the
+            //offer lores still have to be rendered once
+            this.renderedConfirmed = false;
+            this.renderedInitiatorMoney = -1;
+            this.renderedPartnerMoney = -1;
+        }
+
+        public void render() {
+            boolean confirmed = initiator.hasAccepted() || partner.hasAccepted();
+            if (statusSlot != TradeLayout.NO_SLOT && confirmed != renderedConfirmed) {
+                viewer.getInventory().setItem(statusSlot, createStatusStack(confirmed));
+                renderedConfirmed = confirmed;
+            }
+
+            int initiatorMoney = initiator.getMoneyOffer();
+            int partnerMoney = partner.getMoneyOffer();
+            if (usesMoney && moneyInfoSlot != TradeLayout.NO_SLOT && (initiatorMoney != renderedInitiatorMoney || partnerMoney != renderedPartnerMoney)) {
+                viewer.getInventory().setItem(moneyInfoSlot, createMoneyInfoStack(initiatorMoney, partnerMoney));
+                renderedInitiatorMoney = initiatorMoney;
+                renderedPartnerMoney = partnerMoney;
+            }
+
+            if (config.usesXpTrading() && expInfoSlot != TradeLayout.NO_SLOT) {
+                renderExp(other.getExpOffer() - viewer.getExpOffer());
+            }
+        }
+
+        private void renderExp(int expDiff) {
+            Player player = viewer.getPlayer();
+            int initiatorExp = initiator.getExpOffer();
+            int partnerExp = partner.getExpOffer();
+            int level = player.getLevel();
+            float progress = player.getExp();
+
+            //The level preview depends on the experience of the viewer as well
+            if (renderedExp && initiatorExp == renderedInitiatorExp && partnerExp == renderedPartnerExp
+                    && level == renderedLevel && progress == renderedProgress) {
+                return;
+            }
+
+            int levelDiff = getLevelDiff(level, SetExpFix.getTotalExperience(player), expDiff);
+
+            ItemStack expInfo = config.getXpStatusBlockData().newItemStack();
+            ItemMeta expInfoMeta = expInfo.getItemMeta();
+            expInfoMeta.setDisplayName(i18n.getString(Messages.Inventory.EXP_INFO_TITLE));
+
+            List<String> expInfoLore = Lists.newArrayList();
+            expInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
+                    .setVariable("player", initiator.getName())
+                    .setVariable("offer", String.valueOf(initiatorExp) + " XP")
+                    .toString());
+            expInfoLore.add(i18n.getVarString(Messages.Inventory.OFFER_LORE)
+                    .setVariable("player", partner.getName())
+                    .setVariable("offer", String.valueOf(partnerExp) + " XP")
+                    .toString());
+            expInfoLore.add("");
+            expInfoLore.add(i18n.getVarString(Messages.Inventory.LEVEL_INFO)
+                    .setVariable("level-diff", levelFormat.format(levelDiff))
+                    .toString());
+            expInfoMeta.setLore(expInfoLore);
+            expInfo.setItemMeta(expInfoMeta);
+
+            viewer.getInventory().setItem(expInfoSlot, expInfo);
+
+            renderedExp = true;
+            renderedInitiatorExp = initiatorExp;
+            renderedPartnerExp = partnerExp;
+            renderedLevel = level;
+            renderedProgress = progress;
+        }
+
+    }
+
+}
@@ -25,6 +25,7 @@ import org.bukkit.inventory.ItemStack;
 
 import java.util.List;
 import java.util.Locale;
+import java.util.logging.Logger;
 
 public class TradeConfiguration { 
 	
@@ -38,12 +39,16 @@ public class TradeConfiguration {
     private ItemStackData acceptBlockData;
 	private ItemStackData declineBlockData;
 	private ItemStackData seperatorBlockData;
+    private ItemStackData pageBlockData;
     private ItemStackData moneyStatusBlockData;
     private ItemStackData moneyAddRemoveBlockData;
     private ItemStackData xpStatusBlockData;
     private ItemStackData xpAddRemoveBlockData;
     private Locale locale;
 	private String inventoryName;
+    private boolean coalesceUpdates;
+    private int inventoryPoolSize;
+    private TradeLayout layout;
     private int moneyValue1;
     private int moneyValue2;
     private int moneyValue3;
@@ -53,6 +58,12 @@ public class TradeConfiguration {
 	private int maximumTradeDistance;
 	private boolean allowCreativeTrading;
 	private int timeout;
+    private int maxPendingRequests;
+    private int economyThreads;
+    private int economyQueueSize;
+    private long economyTimeoutMillis;
+    private int economyBreakerThreshold;
+    private int economyBreakerCooldown;
 	private boolean useXpTrading;
     private boolean useMoneyTrading;
     private boolean useShiftTrading;
@@ -63,8 +74,10 @@ public class TradeConfiguration {
 	private List<String> itemControlLores;
     private ControlMode worldControlMode;
     private List<String> worldControlList;
+    private final Logger logger;
 	
-	public TradeConfiguration(Configuration config) {
+	public TradeConfiguration(Configuration config, Logger logger) {
+		this.logger = logger;
 		loadByConfiguration(config);
 	}
 	
@@ -73,6 +86,7 @@ public class TradeConfiguration {
 		acceptBlockData = ItemStackData.fromConfigString(blockSection.getString("accept", "ink_sack:10"), BLOCKDATA_SEPERATOR);
 		declineBlockData = ItemStackData.fromConfigString(blockSection.getString("decline", "ink_sack:1"), BLOCKDATA_SEPERATOR);
 		seperatorBlockData = ItemStackData.fromConfigString(blockSection.getString("seperator", "barrier"), BLOCKDATA_SEPERATOR);
+        pageBlockData = ItemStackData.fromConfigString(blockSection.getString("page", "arrow"), BLOCKDATA_SEPERATOR);
         moneyStatusBlockData = ItemStackData.fromConfigString(blockSection.getString("money-status", "gold_nugget"), BLOCKDATA_SEPERATOR);
         moneyAddRemoveBlockData = ItemStackData.fromConfigString(blockSection.getString("money-add-remove", "gold_nugget"), BLOCKDATA_SEPERATOR);
         xpStatusBlockData = ItemStackData.fromConfigString(blockSection.getString("xp-status", "exp_bottle"), BLOCKDATA_SEPERATOR);
@@ -90,17 +104,41 @@ public class TradeConfiguration {
         expValue1 = inventorySection.getInt("exp-value-1", 5);
         expValue2 = inventorySection.getInt("exp-value-2", 50);
         expValue3 = inventorySection.getInt("exp-value-3", 100);
+        coalesceUpdates = inventorySection.getBoolean("coalesce-updates", false);
+        inventoryPoolSize = inventorySection.getInt("pool-size", 16);
+        int offerPages = inventorySection.getInt("offer-pages", 1);
+
+        int[] moneyValues = new int[] { moneyValue1, moneyValue2, moneyValue3 };
+        int[] expValues = new int[] { expValue1, expValue2, expValue3 };
+
+        //Falls back to the classic layout with the button values above if there is no layout section
+        try {
+            layout = TradeLayout.compile(config.getConfigurationSection("layout"), moneyValues, expValues, offerPages);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Invalid trade inventory layout, using the default layout instead: " + e.getMessage());
+
+            offerPages = Math.max(1, Math.min(offerPages, TradeLayout.MAX_PAGES));
+            layout = TradeLayout.createDefault(moneyValues, expValues, offerPages);
+        }
 
 		ConfigurationSection globalSection = config.getConfigurationSection("global");
 		maximumTradeDistance = globalSection.getInt("max-distance", 15);
 		allowCreativeTrading = globalSection.getBoolean("creative-trading", true);
 		timeout = globalSection.getInt("timeout", 60);
+        maxPendingRequests = globalSection.getInt("max-pending-requests", 5);
 		useXpTrading = globalSection.getBoolean("use-xp-trading", true);
         useMoneyTrading = globalSection.getBoolean("use-money-trading", true);
         useShiftTrading = globalSection.getBoolean("use-shift-trading", true);
         maxMoneyTrading = globalSection.getInt("max-money-trading", -1);
 		abortOnDecline = globalSection.getBoolean("abort-on-decline", false);
 		
+		//Read by path as older configurations do not contain this section
+		economyThreads = Math.max(1, config.getInt("economy.worker-threads", 2));
+		economyQueueSize = Math.max(1, config.getInt("economy.queue-size", 64));
+		economyTimeoutMillis = config.getLong("economy.timeout-millis", 3000);
+		economyBreakerThreshold = config.getInt("economy.breaker-threshold", 5);
+		economyBreakerCooldown = config.getInt("economy.breaker-cooldown", 30);
+		
 		ConfigurationSection itemControlSection = config.getConfigurationSection("item-control");
 		itemControlMode = ControlMode.getMode(itemControlSection.getString("control-mode"), ControlMode.BLACKLIST);
 		List<String> controlItemStringList = itemControlSection.getStringList("item-list");
@@ -149,6 +187,10 @@ public class TradeConfiguration {
 		return seperatorBlockData;
 	}
 
+    public ItemStackData getPageBlockData() {
+        return pageBlockData;
+    }
+
     public ItemStackData getMoneyStatusBlockData() {
         return moneyStatusBlockData;
     }
@@ -208,6 +250,10 @@ public class TradeConfiguration {
 	public int getTimeout() {
 		return timeout;
 	}
+
+    public int getMaxPendingRequests() {
+        return maxPendingRequests;
+    }
 	
 	public boolean usesXpTrading() {
 		return useXpTrading;
@@ -217,6 +263,38 @@ public class TradeConfiguration {
         return useMoneyTrading;
     }
 
+    public TradeLayout getLayout() {
+        return layout;
+    }
+
+    public boolean coalescesUpdates() {
+        return coalesceUpdates;
+    }
+
+    public int getInventoryPoolSize() {
+        return inventoryPoolSize;
+    }
+
+    public int getEconomyThreads() {
+        return economyThreads;
+    }
+
+    public int getEconomyQueueSize() {
+        return economyQueueSize;
+    }
+
+    public long getEconomyTimeoutMillis() {
+        return economyTimeoutMillis;
+    }
+
+    public int getEconomyBreakerThreshold() {
+        return economyBreakerThreshold;
+    }
+
+    public int getEconomyBreakerCooldown() {
+        return economyBreakerCooldown;
+    }
+
     public boolean usesShiftTrading() {
         return useShiftTrading;
     }
@@ -309,7 +387,8 @@ public class TradeConfiguration {
 		
 		@SuppressWarnings("deprecation")
 		public ItemStack newItemStack(int amount) {
-			ItemStack stack = new ItemStack(material.getId(), amount, data);
+			//Numeric ids do not exist on servers with flattened materials
+			ItemStack stack = new ItemStack(material, amount, data);
 			return stack;
 		}
 		
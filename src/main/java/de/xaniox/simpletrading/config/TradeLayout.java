@@ -0,0 +1,369 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.config;
+
+import com.google.common.collect.Lists;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TradeLayout {
+
+    public static final int ROW_LENGTH = 9;
+    public static final int MAX_ROWS = 6;
+    public static final int MAX_PAGES = 9;
+    public static final int NO_SLOT = -1;
+
+    private static final char SEPERATOR_SYMBOL = '#';
+    private static final char EMPTY_SYMBOL = ' ';
+    private static final char ACCEPT_SYMBOL = 'A';
+    private static final char DECLINE_SYMBOL = 'D';
+    private static final char STATUS_SYMBOL = 'S';
+    private static final char MONEY_INFO_SYMBOL = 'M';
+    private static final char EXP_INFO_SYMBOL = 'X';
+    private static final char OFFER_SYMBOL = 'o';
+    private static final char PARTNER_OFFER_SYMBOL = 'p';
+    private static final char PREVIOUS_PAGE_SYMBOL = '<';
+    private static final char NEXT_PAGE_SYMBOL = '>';
+    private static final String RESERVED_SYMBOLS = String.valueOf(new char[] { SEPERATOR_SYMBOL, EMPTY_SYMBOL,
+            ACCEPT_SYMBOL, DECLINE_SYMBOL, STATUS_SYMBOL, MONEY_INFO_SYMBOL, EXP_INFO_SYMBOL, OFFER_SYMBOL,
+            PARTNER_OFFER_SYMBOL, PREVIOUS_PAGE_SYMBOL, NEXT_PAGE_SYMBOL });
+    private static final String BUTTON_VALUE_SEPERATOR = ":";
+
+    private final int size;
+    private final SlotAction[] actions;
+    private final int[] values;
+    private final int[] mirrorSlots;
+    private final int[] offerSlots;
+    private final int[] partnerOfferSlots;
+    private final int[] offerIndexes;
+    private final int pageCount;
+    private final long pageAreaMask;
+    private final int statusSlot;
+    private final int moneyInfoSlot;
+    private final int expInfoSlot;
+
+    private TradeLayout(SlotAction[] actions, int[] values, int[] offerSlots, int[] partnerOfferSlots, int pageCount) {
+        this.size = actions.length;
+        this.actions = actions;
+        this.values = values;
+        this.offerSlots = offerSlots;
+        this.partnerOfferSlots = partnerOfferSlots;
+        this.pageCount = pageCount;
+        this.mirrorSlots = new int[size];
+        this.offerIndexes = new int[size];
+        Arrays.fill(mirrorSlots, NO_SLOT);
+        Arrays.fill(offerIndexes, NO_SLOT);
+
+        long pageAreaMask = 0;
+        for (int i = 0; i < offerSlots.length; i++) {
+            mirrorSlots[offerSlots[i]] = partnerOfferSlots[i];
+            offerIndexes[offerSlots[i]] = i;
+            offerIndexes[partnerOfferSlots[i]] = i;
+            pageAreaMask |= 1L << offerSlots[i] | 1L << partnerOfferSlots[i];
+        }
+
+        for (int slot = 0; slot < size; slot++) {
+            if (actions[slot] == SlotAction.PREVIOUS_PAGE || actions[slot] == SlotAction.NEXT_PAGE) {
+                pageAreaMask |= 1L << slot;
+            }
+        }
+
+        this.pageAreaMask = pageAreaMask;
+
+        this.statusSlot = firstSlotOf(SlotAction.STATUS);
+        this.moneyInfoSlot = firstSlotOf(SlotAction.MONEY_INFO);
+        this.expInfoSlot = firstSlotOf(SlotAction.EXP_INFO);
+    }
+
+    public static TradeLayout compile(ConfigurationSection section, int[] moneyValues, int[] expValues, int pageCount) {
+        if (pageCount < 1 || pageCount > MAX_PAGES) {
+            throw new IllegalArgumentException("Offer pages must be between 1 and " + MAX_PAGES);
+        }
+
+        if (section == null || !section.isList("rows")) {
+            return createDefault(moneyValues, expValues, pageCount);
+        }
+
+        List<String> rows = section.getStringList("rows");
+        ConfigurationSection buttonSection = section.getConfigurationSection("buttons");
+
+        return compile(rows, buttonSection, pageCount);
+    }
+
+    public static TradeLayout createDefault(int[] moneyValues, int[] expValues, int pageCount) {
+        List<String> rows = Lists.newArrayList(
+                pageCount > 1 ? "<#MASDX#>" : "##MASDX##",
+                "#123#456#",
+                "oooo#pppp",
+                "oooo#pppp",
+                "oooo#pppp",
+                "oooo#pppp");
+
+        SlotAction[] actions = new SlotAction[ROW_LENGTH * rows.size()];
+        int[] values = new int[actions.length];
+        String moneySymbols = "123";
+        String expSymbols = "456";
+
+        return compile(rows, actions, values, moneySymbols, moneyValues, expSymbols, expValues, pageCount);
+    }
+
+    private static TradeLayout compile(List<String> rows, ConfigurationSection buttonSection, int pageCount) {
+        if (rows.isEmpty() || rows.size() > MAX_ROWS) {
+            throw new IllegalArgumentException("Layout must have between 1 and " + MAX_ROWS + " rows");
+        }
+
+        SlotAction[] actions = new SlotAction[ROW_LENGTH * rows.size()];
+        int[] values = new int[actions.length];
+
+        StringBuilder moneySymbols = new StringBuilder();
+        StringBuilder expSymbols = new StringBuilder();
+        List<Integer> moneyValues = Lists.newArrayList();
+        List<Integer> expValues = Lists.newArrayList();
+
+        if (buttonSection != null) {
+            for (String key : buttonSection.getKeys(false)) {
+                if (key.length() != 1) {
+                    throw new IllegalArgumentException("Layout button symbol \"" + key + "\" must be a single character");
+                }
+
+                if (RESERVED_SYMBOLS.indexOf(key.charAt(0)) >= 0) {
+                    throw new IllegalArgumentException("Layout button symbol \"" + key + "\" is reserved, buttons may not use any of \""
+                            + RESERVED_SYMBOLS + "\"");
+                }
+
+                String definition = buttonSection.getString(key);
+                String[] components = definition.split(BUTTON_VALUE_SEPERATOR);
+                if (components.length != 2) {
+                    throw new IllegalArgumentException("Layout button \"" + definition + "\" is invalid, expected <action>:<value>");
+                }
+
+                int value;
+                try {
+                    value = Integer.parseInt(components[1].trim());
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("Layout button \"" + definition + "\" has an illegal value");
+                }
+
+                //Left clicks add and right clicks remove the value, so it has to be positive
+                if (value <= 0) {
+                    throw new IllegalArgumentException("Layout button \"" + definition + "\" must have a value greater than 0");
+                }
+
+                String action = components[0].trim();
+                if (action.equalsIgnoreCase("add-money")) {
+                    moneySymbols.append(key);
+                    moneyValues.add(value);
+                } else if (action.equalsIgnoreCase("add-exp")) {
+                    expSymbols.append(key);
+                    expValues.add(value);
+                } else {
+                    throw new IllegalArgumentException("Layout button \"" + definition + "\" has an unknown action");
+                }
+            }
+        }
+
+        return compile(rows, actions, values, moneySymbols.toString(), toArray(moneyValues),
+                expSymbols.toString(), toArray(expValues), pageCount);
+    }
+
+    private static TradeLayout compile(List<String> rows, SlotAction[] actions, int[] values, String moneySymbols,
+                                       int[] moneyValues, String expSymbols, int[] expValues, int pageCount) {
+        List<Integer> offerSlots = Lists.newArrayList();
+        List<Integer> partnerOfferSlots = Lists.newArrayList();
+
+        for (int y = 0; y < rows.size(); y++) {
+            String row = rows.get(y);
+            if (row.length() != ROW_LENGTH) {
+                throw new IllegalArgumentException("Layout row \"" + row + "\" must have exactly " + ROW_LENGTH + " slots");
+            }
+
+            for (int x = 0; x < ROW_LENGTH; x++) {
+                int slot = y * ROW_LENGTH + x;
+                char symbol = row.charAt(x);
+                int moneyIndex = moneySymbols.indexOf(symbol);
+                int expIndex = expSymbols.indexOf(symbol);
+
+                if (moneyIndex >= 0) {
+                    actions[slot] = SlotAction.ADD_MONEY;
+                    values[slot] = moneyValues[moneyIndex];
+                    continue;
+                } else if (expIndex >= 0) {
+                    actions[slot] = SlotAction.ADD_EXP;
+                    values[slot] = expValues[expIndex];
+                    continue;
+                }
+
+                switch (symbol) {
+                    case SEPERATOR_SYMBOL:
+                        actions[slot] = SlotAction.SEPERATOR;
+                        break;
+                    case EMPTY_SYMBOL:
+                        actions[slot] = SlotAction.NONE;
+                        break;
+                    case ACCEPT_SYMBOL:
+                        actions[slot] = SlotAction.ACCEPT;
+                        break;
+                    case DECLINE_SYMBOL:
+                        actions[slot] = SlotAction.DECLINE;
+                        break;
+                    case STATUS_SYMBOL:
+                        actions[slot] = SlotAction.STATUS;
+                        break;
+                    case MONEY_INFO_SYMBOL:
+                        actions[slot] = SlotAction.MONEY_INFO;
+                        break;
+                    case EXP_INFO_SYMBOL:
+                        actions[slot] = SlotAction.EXP_INFO;
+                        break;
+                    case OFFER_SYMBOL:
+                        actions[slot] = SlotAction.OFFER;
+                        offerSlots.add(slot);
+                        break;
+                    case PARTNER_OFFER_SYMBOL:
+                        actions[slot] = SlotAction.PARTNER_OFFER;
+                        break;
+                    case PREVIOUS_PAGE_SYMBOL:
+                        actions[slot] = SlotAction.PREVIOUS_PAGE;
+                        break;
+                    case NEXT_PAGE_SYMBOL:
+                        actions[slot] = SlotAction.NEXT_PAGE;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Layout symbol '" + symbol + "' is not defined");
+                }
+            }
+
+            //Partner slots are mirrored horizontally, so the leftmost offer
+            //slot shows up in the rightmost partner slot of the same row
+            for (int x = ROW_LENGTH - 1; x >= 0; x--) {
+                if (row.charAt(x) == PARTNER_OFFER_SYMBOL) {
+                    partnerOfferSlots.add(y * ROW_LENGTH + x);
+                }
+            }
+        }
+
+        if (offerSlots.isEmpty() || offerSlots.size() != partnerOfferSlots.size()) {
+            throw new IllegalArgumentException("Layout must contain the same amount of offer (o) and partner offer (p) slots");
+        }
+
+        TradeLayout layout = new TradeLayout(actions, values, toArray(offerSlots), toArray(partnerOfferSlots), pageCount);
+        if (layout.firstSlotOf(SlotAction.ACCEPT) == NO_SLOT || layout.firstSlotOf(SlotAction.DECLINE) == NO_SLOT
+                || layout.firstSlotOf(SlotAction.STATUS) == NO_SLOT) {
+            throw new IllegalArgumentException("Layout must contain an accept (A), decline (D) and status (S) slot");
+        }
+
+        if (pageCount > 1 && (layout.firstSlotOf(SlotAction.PREVIOUS_PAGE) == NO_SLOT
+                || layout.firstSlotOf(SlotAction.NEXT_PAGE) == NO_SLOT)) {
+            throw new IllegalArgumentException("Layout must contain a previous (<) and next (>) page button when using several offer pages");
+        }
+
+        return layout;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+
+        return array;
+    }
+
+    private int firstSlotOf(SlotAction action) {
+        for (int slot = 0; slot < size; slot++) {
+            if (actions[slot] == action) {
+                return slot;
+            }
+        }
+
+        return NO_SLOT;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public SlotAction getAction(int slot) {
+        return slot >= 0 && slot < size ? actions[slot] : SlotAction.NONE;
+    }
+
+    public int getValue(int slot) {
+        return values[slot];
+    }
+
+    public int getMirrorSlot(int slot) {
+        return mirrorSlots[slot];
+    }
+
+    public int getOfferSlotCount() {
+        return offerSlots.length;
+    }
+
+    public int getOfferSlot(int index) {
+        return offerSlots[index];
+    }
+
+    public int getPartnerOfferSlot(int index) {
+        return partnerOfferSlots[index];
+    }
+
+    public int getOfferIndex(int slot) {
+        return offerIndexes[slot];
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public long getPageAreaMask() {
+        return pageAreaMask;
+    }
+
+    public int getStatusSlot() {
+        return statusSlot;
+    }
+
+    public int getMoneyInfoSlot() {
+        return moneyInfoSlot;
+    }
+
+    public int getExpInfoSlot() {
+        return expInfoSlot;
+    }
+
+    public enum SlotAction {
+
+        NONE,
+        SEPERATOR,
+        ACCEPT,
+        DECLINE,
+        STATUS,
+        MONEY_INFO,
+        EXP_INFO,
+        ADD_MONEY,
+        ADD_EXP,
+        OFFER,
+        PARTNER_OFFER,
+        PREVIOUS_PAGE,
+        NEXT_PAGE
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.event;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class EventTopic<E> {
+
+    private static final Subscription<?>[] NO_SUBSCRIPTIONS = new Subscription<?>[0];
+
+    private final Class<E> type;
+    private final Logger logger;
+    //Copy on write, publishing only reads the current array
+    private volatile Subscription<?>[] subscriptions;
+
+    public EventTopic(Class<E> type, Logger logger) {
+        this.type = type;
+        this.logger = logger;
+        this.subscriptions = NO_SUBSCRIPTIONS;
+    }
+
+    public Class<E> getType() {
+        return type;
+    }
+
+    public boolean hasSubscribers() {
+        return subscriptions.length != 0;
+    }
+
+    public synchronized void subscribe(TradeSubscriber<? super E> subscriber, Executor executor) {
+        Subscription<?>[] current = subscriptions;
+        Subscription<?>[] updated = new Subscription<?>[current.length + 1];
+
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = new Subscription<>(subscriber, executor);
+        subscriptions = updated;
+    }
+
+    public synchronized boolean unsubscribe(TradeSubscriber<? super E> subscriber) {
+        Subscription<?>[] current = subscriptions;
+
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].subscriber != subscriber) {
+                continue;
+            }
+
+            if (current.length == 1) {
+                subscriptions = NO_SUBSCRIPTIONS;
+                return true;
+            }
+
+            Subscription<?>[] updated = new Subscription<?>[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, i);
+            System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+            subscriptions = updated;
+            return true;
+        }
+
+        return false;
+    }
+
+    public synchronized void clear() {
+        subscriptions = NO_SUBSCRIPTIONS;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void publish(final E event) {
+        Subscription<?>[] current = subscriptions;
+
+        for (Subscription<?> element : current) {
+            final Subscription<E> subscription = (Subscription<E>) element;
+
+            if (subscription.executor == null) {
+                deliver(subscription, event);
+                continue;
+            }
+
+            try {
+                subscription.executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        deliver(subscription, event);
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Could not hand " + type.getSimpleName() + " to the executor of a subscriber", e);
+            }
+        }
+    }
+
+    private void deliver(Subscription<E> subscription, E event) {
+        try {
+            subscription.subscriber.onEvent(event);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Subscriber threw an exception while handling " + type.getSimpleName(), e);
+        }
+    }
+
+    private static class Subscription<E> {
+
+        private final TradeSubscriber<? super E> subscriber;
+        private final Executor executor;
+
+        public Subscription(TradeSubscriber<? super E> subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+    }
+
+}
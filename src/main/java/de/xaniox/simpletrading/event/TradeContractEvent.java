@@ -0,0 +1,36 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.event;
+
+import de.xaniox.simpletrading.Trade;
+
+public class TradeContractEvent extends TradeEvent {
+
+    private final String settlementId;
+
+    public TradeContractEvent(Trade trade, String settlementId) {
+        super(trade);
+        this.settlementId = settlementId;
+    }
+
+    public String getSettlementId() {
+        //Null if no money has been traded
+        return settlementId;
+    }
+
+}
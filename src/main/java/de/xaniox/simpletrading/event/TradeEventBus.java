@@ -0,0 +1,110 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.event;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+public class TradeEventBus {
+
+    private final EventTopic<TradeRequestEvent> requestTopic;
+    private final EventTopic<TradeRequestEndEvent> requestEndTopic;
+    private final EventTopic<TradeAcceptEvent> acceptTopic;
+    private final EventTopic<TradeOfferChangeEvent> offerChangeTopic;
+    private final EventTopic<TradeContractEvent> contractTopic;
+    private final EventTopic<TradeCancelEvent> cancelTopic;
+    private final Map<Class<?>, EventTopic<?>> topics;
+
+    public TradeEventBus(Logger logger) {
+        this.requestTopic = new EventTopic<>(TradeRequestEvent.class, logger);
+        this.requestEndTopic = new EventTopic<>(TradeRequestEndEvent.class, logger);
+        this.acceptTopic = new EventTopic<>(TradeAcceptEvent.class, logger);
+        this.offerChangeTopic = new EventTopic<>(TradeOfferChangeEvent.class, logger);
+        this.contractTopic = new EventTopic<>(TradeContractEvent.class, logger);
+        this.cancelTopic = new EventTopic<>(TradeCancelEvent.class, logger);
+
+        this.topics = ImmutableMap.<Class<?>, EventTopic<?>>builder()
+                .put(TradeRequestEvent.class, requestTopic)
+                .put(TradeRequestEndEvent.class, requestEndTopic)
+                .put(TradeAcceptEvent.class, acceptTopic)
+                .put(TradeOfferChangeEvent.class, offerChangeTopic)
+                .put(TradeContractEvent.class, contractTopic)
+                .put(TradeCancelEvent.class, cancelTopic)
+                .build();
+    }
+
+    public <E> void subscribe(Class<E> type, TradeSubscriber<? super E> subscriber) {
+        getTopic(type).subscribe(subscriber, null);
+    }
+
+    public <E> void subscribe(Class<E> type, TradeSubscriber<? super E> subscriber, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+
+        getTopic(type).subscribe(subscriber, executor);
+    }
+
+    public <E> boolean unsubscribe(Class<E> type, TradeSubscriber<? super E> subscriber) {
+        return getTopic(type).unsubscribe(subscriber);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <E> EventTopic<E> getTopic(Class<E> type) {
+        EventTopic<E> topic = (EventTopic<E>) topics.get(type);
+        if (topic == null) {
+            throw new IllegalArgumentException("There is no topic for " + type.getName());
+        }
+
+        return topic;
+    }
+
+    public EventTopic<TradeRequestEvent> getRequestTopic() {
+        return requestTopic;
+    }
+
+    public EventTopic<TradeRequestEndEvent> getRequestEndTopic() {
+        return requestEndTopic;
+    }
+
+    public EventTopic<TradeAcceptEvent> getAcceptTopic() {
+        return acceptTopic;
+    }
+
+    public EventTopic<TradeOfferChangeEvent> getOfferChangeTopic() {
+        return offerChangeTopic;
+    }
+
+    public EventTopic<TradeContractEvent> getContractTopic() {
+        return contractTopic;
+    }
+
+    public EventTopic<TradeCancelEvent> getCancelTopic() {
+        return cancelTopic;
+    }
+
+    public void clear() {
+        for (EventTopic<?> topic : topics.values()) {
+            topic.clear();
+        }
+    }
+
+}
@@ -31,9 +31,11 @@ public interface Messages {
         public static final String CANCEL_TRADE_PLAYER_LEFT = PREFIX + "cancel-trade-player-left";
         public static final String CANCEL_TRADE_TIMEOUT = PREFIX + "cancel-trade-timeout";
         public static final String CANCEL_SERVER_SHUTDOWN = PREFIX + "cancel-server-shutdown";
+        public static final String CANCEL_SETTLEMENT_FAILED = PREFIX + "cancel-settlement-failed";
         public static final String NOT_ENOUGH_XP = PREFIX + "not-enough-xp";
         public static final String NO_XP_OFFER = PREFIX + "no-xp-offer";
         public static final String NOT_ENOUGH_MONEY = PREFIX + "not-enough-money";
+        public static final String BALANCE_LOADING = PREFIX + "balance-loading";
         public static final String NO_NEGATIVE_MONEY_OFFER = PREFIX + "no-negative-money-offer";
         public static final String CANNOT_TRADE_ITEM = PREFIX + "cannot-trade-item";
         public static final String INVENTORY_FULL_ITEMS_DROPPED = PREFIX + "inventory-full-items-dropped";
@@ -48,6 +50,9 @@ public interface Messages {
         public static final String TRADE_REQUEST_DECLINED = PREFIX + "trade-request-declined";
         public static final String TRADE_DECLINED = PREFIX + "trade-declined";
         public static final String MAX_TRADE_AMOUNT_REACHED = PREFIX + "max-trade-amount-reached";
+        public static final String TOO_MANY_PENDING_REQUESTS = PREFIX + "too-many-pending-requests";
+        public static final String PENDING_REQUESTS = PREFIX + "pending-requests";
+        public static final String REQUEST_NOT_FOUND = PREFIX + "request-not-found";
 
     }
 
@@ -68,6 +73,9 @@ public interface Messages {
         public static final String ADD_EXP_TITLE = PREFIX + "add-exp-title";
         public static final String ADD_REMOVE_MONEY_LORE = PREFIX + "add-remove-money-lore";
         public static final String LEVEL_INFO = PREFIX + "level-info";
+        public static final String PREVIOUS_PAGE_TITLE = PREFIX + "previous-page-title";
+        public static final String NEXT_PAGE_TITLE = PREFIX + "next-page-title";
+        public static final String PAGE_LORE = PREFIX + "page-lore";
 
     }
 
@@ -88,6 +96,12 @@ public interface Messages {
         public static final String NO_SELF_TRADE = PREFIX + "no-self-trade";
         public static final String CANNOT_TRADE_IN_WORLD = PREFIX + "cannot-trade-in-world";
         public static final String CANNOT_TRADE_IN_WORLD_PARTNER = PREFIX + "cannot-trade-in-world-partner";
+        public static final String PLAYERS_NEARBY = PREFIX + "players-nearby";
+        public static final String NO_PLAYERS_NEARBY = PREFIX + "no-players-nearby";
+        public static final String TIMINGS_HEADER = PREFIX + "timings-header";
+        public static final String TIMINGS_PHASE = PREFIX + "timings-phase";
+        public static final String TIMINGS_ECONOMY = PREFIX + "timings-economy";
+        public static final String TIMINGS_ECONOMY_PAUSED = PREFIX + "timings-economy-paused";
 
     }
 	
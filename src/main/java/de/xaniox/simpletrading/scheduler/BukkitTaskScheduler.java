@@ -0,0 +1,106 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+public class BukkitTaskScheduler implements TaskScheduler {
+
+    private final Plugin plugin;
+    private final BukkitScheduler scheduler;
+
+    public BukkitTaskScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = plugin.getServer().getScheduler();
+    }
+
+    @Override
+    public ScheduledTask runTimer(Runnable task, long delay, long period) {
+        return new BukkitScheduledTask(scheduler.runTaskTimer(plugin, task, delay, period));
+    }
+
+    @Override
+    public ScheduledTask runLater(Runnable task, long delay) {
+        return new BukkitScheduledTask(scheduler.runTaskLater(plugin, task, delay));
+    }
+
+    @Override
+    public void run(Entity entity, Runnable task) {
+        scheduler.runTask(plugin, task);
+    }
+
+    @Override
+    public void runLater(Entity entity, Runnable task, long delay) {
+        scheduler.runTaskLater(plugin, task, delay);
+    }
+
+    @Override
+    public void execute(Entity entity, Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            scheduler.runTask(plugin, task);
+        }
+    }
+
+    @Override
+    public void execute(Entity entity, Runnable task, Runnable retired) {
+        //Tasks on the main thread run regardless of the entity
+        execute(entity, task);
+    }
+
+    @Override
+    public void execute(Location location, Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            scheduler.runTask(plugin, task);
+        }
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(Entity entity) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    @Override
+    public void cancelAll() {
+        scheduler.cancelTasks(plugin);
+    }
+
+    private static class BukkitScheduledTask implements ScheduledTask {
+
+        private final BukkitTask task;
+
+        public BukkitScheduledTask(BukkitTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void cancel() {
+            task.cancel();
+        }
+
+    }
+
+}
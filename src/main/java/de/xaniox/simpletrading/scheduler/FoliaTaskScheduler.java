@@ -0,0 +1,206 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.scheduler;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+public class FoliaTaskScheduler implements TaskScheduler {
+
+    private static final String REGIONIZED_SERVER_CLASS = "io.papermc.paper.threadedregions.RegionizedServer";
+    private static final String SCHEDULER_PACKAGE = "io.papermc.paper.threadedregions.scheduler.";
+    private static final String CONSUMER_CLASS = "java.util.function.Consumer";
+
+    private final Plugin plugin;
+    private final Server server;
+    private final Object globalScheduler;
+    private final Object regionScheduler;
+    private final Class<?> consumerClass;
+    private final Method globalRunAtFixedRate;
+    private final Method globalRunDelayed;
+    private final Method globalCancelTasks;
+    private final Method regionExecute;
+    private final Method entityGetScheduler;
+    private final Method entityRun;
+    private final Method entityRunDelayed;
+    private final Method taskCancel;
+    private final Method isOwnedByCurrentRegion;
+
+    public FoliaTaskScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        this.server = plugin.getServer();
+
+        try {
+            ClassLoader loader = server.getClass().getClassLoader();
+            Class<?> globalSchedulerClass = Class.forName(SCHEDULER_PACKAGE + "GlobalRegionScheduler", false, loader);
+            Class<?> regionSchedulerClass = Class.forName(SCHEDULER_PACKAGE + "RegionScheduler", false, loader);
+            Class<?> entitySchedulerClass = Class.forName(SCHEDULER_PACKAGE + "EntityScheduler", false, loader);
+            Class<?> scheduledTaskClass = Class.forName(SCHEDULER_PACKAGE + "ScheduledTask", false, loader);
+            consumerClass = Class.forName(CONSUMER_CLASS);
+
+            globalScheduler = Server.class.getMethod("getGlobalRegionScheduler").invoke(server);
+            globalRunAtFixedRate = globalSchedulerClass.getMethod("runAtFixedRate", Plugin.class, consumerClass, long.class, long.class);
+            globalRunDelayed = globalSchedulerClass.getMethod("runDelayed", Plugin.class, consumerClass, long.class);
+            globalCancelTasks = globalSchedulerClass.getMethod("cancelTasks", Plugin.class);
+            regionScheduler = Server.class.getMethod("getRegionScheduler").invoke(server);
+            regionExecute = regionSchedulerClass.getMethod("execute", Plugin.class, Location.class, Runnable.class);
+            entityGetScheduler = Entity.class.getMethod("getScheduler");
+            entityRun = entitySchedulerClass.getMethod("run", Plugin.class, consumerClass, Runnable.class);
+            entityRunDelayed = entitySchedulerClass.getMethod("runDelayed", Plugin.class, consumerClass, Runnable.class, long.class);
+            taskCancel = scheduledTaskClass.getMethod("cancel");
+            isOwnedByCurrentRegion = Server.class.getMethod("isOwnedByCurrentRegion", Entity.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not hook into the region scheduler", e);
+        }
+    }
+
+    public static boolean isSupported() {
+        try {
+            Class.forName(REGIONIZED_SERVER_CLASS);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public ScheduledTask runTimer(Runnable task, long delay, long period) {
+        //The region scheduler does not accept a delay of zero ticks
+        Object handle = invoke(globalRunAtFixedRate, globalScheduler, plugin, consumer(task), Math.max(1L, delay), Math.max(1L, period));
+        return new FoliaScheduledTask(handle);
+    }
+
+    @Override
+    public ScheduledTask runLater(Runnable task, long delay) {
+        Object handle = invoke(globalRunDelayed, globalScheduler, plugin, consumer(task), Math.max(1L, delay));
+        return new FoliaScheduledTask(handle);
+    }
+
+    @Override
+    public void run(Entity entity, Runnable task) {
+        Object entityScheduler = invoke(entityGetScheduler, entity);
+        invoke(entityRun, entityScheduler, plugin, consumer(task), null);
+    }
+
+    @Override
+    public void runLater(Entity entity, Runnable task, long delay) {
+        Object entityScheduler = invoke(entityGetScheduler, entity);
+        invoke(entityRunDelayed, entityScheduler, plugin, consumer(task), null, Math.max(1L, delay));
+    }
+
+    @Override
+    public void execute(Entity entity, Runnable task) {
+        if (isOwnedByCurrentThread(entity)) {
+            task.run();
+        } else {
+            run(entity, task);
+        }
+    }
+
+    @Override
+    public void execute(Entity entity, Runnable task, Runnable retired) {
+        if (isOwnedByCurrentThread(entity)) {
+            task.run();
+            return;
+        }
+
+        Object entityScheduler = invoke(entityGetScheduler, entity);
+        Object handle = invoke(entityRun, entityScheduler, plugin, consumer(task), retired);
+        if (handle == null && retired != null) {
+            //The entity has already been removed, the scheduler won't call the retired task itself
+            retired.run();
+        }
+    }
+
+    @Override
+    public void execute(Location location, Runnable task) {
+        invoke(regionExecute, regionScheduler, plugin, location, task);
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(Entity entity) {
+        return (Boolean) invoke(isOwnedByCurrentRegion, server, entity);
+    }
+
+    @Override
+    public void cancelAll() {
+        invoke(globalCancelTasks, globalScheduler, plugin);
+    }
+
+    private Object consumer(final Runnable task) {
+        return Proxy.newProxyInstance(consumerClass.getClassLoader(), new Class<?>[] { consumerClass }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "accept":
+                    task.run();
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "SimpleTrading task " + task;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private class FoliaScheduledTask implements ScheduledTask {
+
+        private final Object handle;
+
+        public FoliaScheduledTask(Object handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public void cancel() {
+            if (handle != null) {
+                invoke(taskCancel, handle);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.scheduler;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+
+public interface TaskScheduler {
+
+    public ScheduledTask runTimer(Runnable task, long delay, long period);
+
+    public ScheduledTask runLater(Runnable task, long delay);
+
+    public void run(Entity entity, Runnable task);
+
+    public void runLater(Entity entity, Runnable task, long delay);
+
+    public void execute(Entity entity, Runnable task);
+
+    //The retired task runs instead if the entity is removed before the task could run
+    public void execute(Entity entity, Runnable task, Runnable retired);
+
+    //Runs the task on the thread owning the location, used when there is no entity to run it for
+    public void execute(Location location, Runnable task);
+
+    public boolean isOwnedByCurrentThread(Entity entity);
+
+    public void cancelAll();
+
+    public interface ScheduledTask {
+
+        public void cancel();
+
+    }
+
+}
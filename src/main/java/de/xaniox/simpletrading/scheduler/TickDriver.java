@@ -0,0 +1,180 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.scheduler;
+
+import org.bukkit.entity.Entity;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class TickDriver implements Runnable {
+
+    private static final int STATS_WINDOW = 100;
+
+    private final TaskScheduler scheduler;
+    private final Logger logger;
+    private final long budgetNanos;
+    private final PhaseQueue[] phases;
+    private long tick;
+
+    public TickDriver(TaskScheduler scheduler, Logger logger, long budgetNanos) {
+        this.scheduler = scheduler;
+        this.logger = logger;
+        this.budgetNanos = budgetNanos;
+
+        Phase[] values = Phase.values();
+        this.phases = new PhaseQueue[values.length];
+        for (int i = 0; i < values.length; i++) {
+            phases[i] = new PhaseQueue(values[i]);
+        }
+    }
+
+    public void addPeriodic(Phase phase, Runnable task) {
+        phases[phase.ordinal()].periodic.add(task);
+    }
+
+    public void removePeriodic(Phase phase, Runnable task) {
+        phases[phase.ordinal()].periodic.remove(task);
+    }
+
+    public void defer(Phase phase, Runnable task) {
+        phases[phase.ordinal()].queue.add(new DeferredTask(null, task));
+    }
+
+    public void defer(Phase phase, Entity entity, Runnable task) {
+        phases[phase.ordinal()].queue.add(new DeferredTask(entity, task));
+    }
+
+    @Override
+    public void run() {
+        tick++;
+
+        long tickStart = System.nanoTime();
+        long deadline = tickStart + budgetNanos;
+
+        for (PhaseQueue phase : phases) {
+            long phaseStart = System.nanoTime();
+            phase.runPeriodic();
+            phase.drain(deadline);
+            phase.stats.record(System.nanoTime() - phaseStart, phase.queue.size());
+        }
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    public TickStats getStats(Phase phase) {
+        return phases[phase.ordinal()].stats;
+    }
+
+    public void clear() {
+        for (PhaseQueue phase : phases) {
+            phase.periodic.clear();
+            phase.queue.clear();
+        }
+    }
+
+    public enum Phase {
+
+        TIMERS,
+        DEFERRED,
+        RENDER
+
+    }
+
+    private class PhaseQueue {
+
+        private final Phase phase;
+        private final List<Runnable> periodic;
+        private final Queue<DeferredTask> queue;
+        private final TickStats stats;
+
+        public PhaseQueue(Phase phase) {
+            this.phase = phase;
+            this.periodic = new CopyOnWriteArrayList<>();
+            this.queue = new ConcurrentLinkedQueue<>();
+            this.stats = new TickStats(STATS_WINDOW);
+        }
+
+        public void runPeriodic() {
+            for (Runnable task : periodic) {
+                runSafely(task);
+            }
+        }
+
+        public void drain(long deadline) {
+            //Run at least one task per tick so a phase can not starve, the
+            //rest is spread over the following ticks once the budget is used up
+            DeferredTask task = queue.poll();
+
+            while (task != null) {
+                if (task.entity != null) {
+                    final Runnable entityTask = task.task;
+
+                    //The scheduler may run the task inline, a failing task must not abort the tick
+                    scheduler.execute(task.entity, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            runSafely(entityTask);
+                        }
+                    });
+                } else {
+                    runSafely(task.task);
+                }
+
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+
+                task = queue.poll();
+            }
+        }
+
+        private void runSafely(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Task in phase " + phase + " threw an exception", e);
+            }
+        }
+
+    }
+
+    private static class DeferredTask {
+
+        private final Entity entity;
+        private final Runnable task;
+
+        public DeferredTask(Entity entity, Runnable task) {
+            this.entity = entity;
+            this.task = task;
+        }
+
+    }
+
+}
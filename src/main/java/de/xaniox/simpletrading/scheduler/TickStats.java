@@ -0,0 +1,67 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.scheduler;
+
+public class TickStats {
+
+    private final long[] samples;
+    private int index;
+    private int count;
+    private long total;
+    private int backlog;
+
+    public TickStats(int window) {
+        this.samples = new long[window];
+    }
+
+    public synchronized void record(long nanos, int backlog) {
+        //Keep a running total over the window instead of summing on every read
+        total -= samples[index];
+        samples[index] = nanos;
+        total += nanos;
+
+        index = (index + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+
+        this.backlog = backlog;
+    }
+
+    public synchronized long getAverageNanos() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public synchronized long getMaxNanos() {
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, samples[i]);
+        }
+
+        return max;
+    }
+
+    public synchronized long getLastNanos() {
+        return count == 0 ? 0 : samples[(index + samples.length - 1) % samples.length];
+    }
+
+    public synchronized int getBacklog() {
+        return backlog;
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * This file is part of SimpleTrading.
+ * Copyright (c) 2015-2016 Matthias Werning
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.xaniox.simpletrading.scheduler;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class TimingWheel implements Runnable {
+
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final Logger logger;
+    private final Timeout[] buckets;
+    private final int mask;
+    private long tick;
+    private int pending;
+
+    public TimingWheel(Logger logger) {
+        this(logger, DEFAULT_WHEEL_SIZE);
+    }
+
+    public TimingWheel(Logger logger, int wheelSize) {
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("Wheel size must be greater than zero");
+        }
+
+        //Round up to the next power of two so the bucket can be found with a mask
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.logger = logger;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    public synchronized Timeout schedule(Runnable task, long delayTicks) {
+        if (delayTicks < 1) {
+            delayTicks = 1;
+        }
+
+        Timeout timeout = new Timeout(this, task, tick + delayTicks);
+        link(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        Timeout expired = collectExpired();
+
+        while (expired != null) {
+            Timeout next = expired.next;
+            expired.next = null;
+
+            try {
+                expired.task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Timeout task threw an exception", e);
+            }
+
+            expired = next;
+        }
+    }
+
+    private synchronized Timeout collectExpired() {
+        tick++;
+
+        if (pending == 0) {
+            return null;
+        }
+
+        int index = (int) (tick & mask);
+        Timeout expired = null;
+        Timeout current = buckets[index];
+
+        //Unlink everything that is due first as running a task
+        //may cancel other timeouts in this bucket
+        while (current != null) {
+            Timeout next = current.next;
+
+            if (current.deadline <= tick) {
+                unlink(current);
+                current.state = Timeout.STATE_EXPIRED;
+                current.next = expired;
+                expired = current;
+            }
+
+            current = next;
+        }
+
+        return expired;
+    }
+
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    public synchronized long getTick() {
+        return tick;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            Timeout current = buckets[i];
+
+            while (current != null) {
+                Timeout next = current.next;
+                current.state = Timeout.STATE_CANCELLED;
+                current.prev = null;
+                current.next = null;
+                current = next;
+            }
+
+            buckets[i] = null;
+        }
+
+        pending = 0;
+    }
+
+    private void link(Timeout timeout) {
+        int index = (int) (timeout.deadline & mask);
+        Timeout head = buckets[index];
+
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+
+        buckets[index] = timeout;
+        pending++;
+    }
+
+    private void unlink(Timeout timeout) {
+        int index = (int) (timeout.deadline & mask);
+
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[index] = timeout.next;
+        }
+
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+
+        timeout.prev = null;
+        timeout.next = null;
+        pending--;
+    }
+
+    public static final class Timeout {
+
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private Timeout prev;
+        private Timeout next;
+        private int state;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+            this.state = STATE_PENDING;
+        }
+
+        public boolean cancel() {
+            synchronized (wheel) {
+                if (state != STATE_PENDING) {
+                    return false;
+                }
+
+                state = STATE_CANCELLED;
+                wheel.unlink(this);
+                return true;
+            }
+        }
+
+        public boolean isCancelled() {
+            synchronized (wheel) {
+                return state == STATE_CANCELLED;
+            }
+        }
+
+        public boolean isExpired() {
+            synchronized (wheel) {
+                return state == STATE_EXPIRED;
+            }
+        }
+
+        public long getRemainingTicks() {
+            synchronized (wheel) {
+                return Math.max(0, deadline - wheel.tick);
+            }
+        }
+
+    }
+
+}